@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+/**
+ * IRCv3 capability requested from servers that offer it
+ *
+ * Subclasses can decide whether to request a capability from the value the server advertises it with, and set up or
+ * tear down session state as it is enabled or disabled.
+ */
+public class Capability {
+    /**
+     * All prefixes of a user are sent in <code>NAMES</code> and <code>WHOIS</code> replies.
+     */
+    public static final String MULTI_PREFIX = "multi-prefix";
+    /**
+     * Lines carry the time the server received them in the <code>time</code> tag.
+     */
+    public static final String SERVER_TIME = "server-time";
+    /**
+     * Related lines are grouped with <code>BATCH</code> commands and the <code>batch</code> tag.
+     */
+    public static final String BATCH = "batch";
+    /**
+     * Users in common channels changing their away status are sent as <code>AWAY</code> commands.
+     */
+    public static final String AWAY_NOTIFY = "away-notify";
+    /**
+     * <code>JOIN</code> commands include the account and real name of the user.
+     */
+    public static final String EXTENDED_JOIN = "extended-join";
+
+    private final String mName;
+
+    /**
+     * Create a new capability.
+     *
+     * @param name Capability name.
+     */
+    public Capability(String name) {
+        mName = name;
+    }
+
+    /**
+     * Get the capability name.
+     *
+     * @return Name.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Check whether to request the capability from a server offering it.
+     *
+     * @param session Session being negotiated.
+     * @param value Value advertised by the server, empty if none.
+     * @return True to request the capability.
+     */
+    public boolean shouldRequest(Session session, String value) {
+        return true;
+    }
+
+    /**
+     * Called once the server has enabled the capability.
+     *
+     * @param session Session the capability was enabled on.
+     */
+    public void onEnabled(Session session) {
+    }
+
+    /**
+     * Called once the server has disabled or removed the capability.
+     *
+     * @param session Session the capability was disabled on.
+     */
+    public void onDisabled(Session session) {
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+import com.nebkat.junglist.irc.events.Event;
+import com.nebkat.junglist.irc.events.irc.CapEvent;
+import com.nebkat.junglist.irc.events.irc.response.ServerConnectedEvent;
+import com.nebkat.junglist.irc.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Negotiates IRCv3 capabilities with the server of a session
+ *
+ * <code>CAP LS 302</code> is sent on connecting, holding registration until the registered capabilities offered by the
+ * server have been requested and answered, after which <code>CAP END</code> is sent. Capabilities offered or removed
+ * later with <code>CAP NEW</code> and <code>CAP DEL</code> are requested and disabled as they change. Servers without
+ * capability support register the session normally.
+ */
+class CapabilityNegotiator {
+    private static final String TAG = "CapabilityNegotiator";
+
+    private final Irc mIrc;
+    private final Session mSession;
+
+    // Capabilities offered by the server and their values
+    private final Map<String, String> mOffered = new LinkedHashMap<>();
+    // Capabilities of a listing spanning several lines
+    private final Map<String, String> mListing = new LinkedHashMap<>();
+    private volatile Set<String> mEnabled = Collections.emptySet();
+    private int mPendingRequests;
+    private boolean mNegotiating;
+
+    CapabilityNegotiator(Irc irc, Session session) {
+        mIrc = irc;
+        mSession = session;
+    }
+
+    /**
+     * Start negotiating, before registering with the server.
+     */
+    synchronized void start() {
+        clear();
+        if (mIrc.getCapabilityRegistry().isEmpty()) {
+            return;
+        }
+        mNegotiating = true;
+        Irc.write(mSession, Irc.COMMAND_CAP, CapEvent.SUBCOMMAND_LS + " 302");
+    }
+
+    /**
+     * Forget all capabilities, as the session disconnected.
+     */
+    synchronized void clear() {
+        mOffered.clear();
+        mListing.clear();
+        mEnabled = Collections.emptySet();
+        mPendingRequests = 0;
+        mNegotiating = false;
+    }
+
+    /**
+     * Check whether a capability is enabled.
+     *
+     * @param name Capability name.
+     * @return True if enabled.
+     */
+    boolean isEnabled(String name) {
+        return mEnabled.contains(name);
+    }
+
+    /**
+     * Get the enabled capabilities.
+     *
+     * @return Immutable set of capability names.
+     */
+    Set<String> getEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Get the capabilities offered by the server.
+     *
+     * @return Immutable snapshot of capability names mapped to their values.
+     */
+    synchronized Map<String, String> getOffered() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(mOffered));
+    }
+
+    /**
+     * Continue negotiating from an event received from the server.
+     *
+     * @param event Event.
+     */
+    void onEvent(Event event) {
+        if (event instanceof CapEvent) {
+            List<Capability> enabled = new ArrayList<>();
+            List<Capability> disabled = new ArrayList<>();
+            synchronized (this) {
+                onCap((CapEvent) event, enabled, disabled);
+            }
+            for (Capability capability : enabled) {
+                capability.onEnabled(mSession);
+            }
+            for (Capability capability : disabled) {
+                capability.onDisabled(mSession);
+            }
+        } else if (event instanceof ServerConnectedEvent) {
+            synchronized (this) {
+                // Registered, either negotiation ended or the server does not support it
+                mNegotiating = false;
+            }
+        }
+    }
+
+    private void onCap(CapEvent event, List<Capability> enabled, List<Capability> disabled) {
+        Map<String, String> capabilities = event.getCapabilities();
+        switch (event.getSubcommand()) {
+            case CapEvent.SUBCOMMAND_LS:
+                mListing.putAll(capabilities);
+                if (event.isContinued()) {
+                    return;
+                }
+                mOffered.putAll(mListing);
+                request(mListing);
+                mListing.clear();
+                break;
+            case CapEvent.SUBCOMMAND_NEW:
+                mOffered.putAll(capabilities);
+                request(capabilities);
+                break;
+            case CapEvent.SUBCOMMAND_DEL:
+                for (String name : capabilities.keySet()) {
+                    mOffered.remove(name);
+                    disable(name, disabled);
+                }
+                break;
+            case CapEvent.SUBCOMMAND_ACK:
+                for (String name : capabilities.keySet()) {
+                    if (name.startsWith("-")) {
+                        disable(name.substring(1), disabled);
+                    } else {
+                        enable(name, enabled);
+                    }
+                }
+                onAnswer();
+                break;
+            case CapEvent.SUBCOMMAND_NAK:
+                Log.w(TAG, "Capabilities rejected: " + capabilities.keySet());
+                onAnswer();
+                break;
+        }
+    }
+
+    private void request(Map<String, String> offered) {
+        CapabilityRegistry registry = mIrc.getCapabilityRegistry();
+        List<String> requests = new ArrayList<>();
+        for (Map.Entry<String, String> entry : offered.entrySet()) {
+            Capability capability = registry.get(entry.getKey());
+            if (capability != null && !mEnabled.contains(capability.getName())
+                    && capability.shouldRequest(mSession, entry.getValue())) {
+                requests.add(capability.getName());
+            }
+        }
+
+        // Each request is acknowledged or rejected as a whole, so keep it within a single reply
+        int available = mSession.getISupport().getLineLength() - 100;
+        StringBuilder line = new StringBuilder();
+        for (String request : requests) {
+            if (line.length() > 0 && line.length() + 1 + Utils.utf8Length(request) > available) {
+                writeRequest(line.toString());
+                line.setLength(0);
+            }
+            if (line.length() > 0) {
+                line.append(' ');
+            }
+            line.append(request);
+        }
+        if (line.length() > 0) {
+            writeRequest(line.toString());
+        }
+        if (mPendingRequests == 0) {
+            end();
+        }
+    }
+
+    private void writeRequest(String capabilities) {
+        mPendingRequests++;
+        Irc.write(mSession, Irc.COMMAND_CAP, "REQ :" + capabilities);
+    }
+
+    private void onAnswer() {
+        if (mPendingRequests > 0 && --mPendingRequests == 0) {
+            end();
+        }
+    }
+
+    private void end() {
+        if (mNegotiating) {
+            mNegotiating = false;
+            Irc.write(mSession, Irc.COMMAND_CAP, "END");
+        }
+    }
+
+    private void enable(String name, List<Capability> enabled) {
+        if (mEnabled.contains(name)) {
+            return;
+        }
+        Set<String> added = new HashSet<>(mEnabled);
+        added.add(name);
+        mEnabled = Collections.unmodifiableSet(added);
+        Capability capability = mIrc.getCapabilityRegistry().get(name);
+        if (capability != null) {
+            enabled.add(capability);
+        }
+    }
+
+    private void disable(String name, List<Capability> disabled) {
+        if (!mEnabled.contains(name)) {
+            return;
+        }
+        Set<String> removed = new HashSet<>(mEnabled);
+        removed.remove(name);
+        mEnabled = Collections.unmodifiableSet(removed);
+        Capability capability = mIrc.getCapabilityRegistry().get(name);
+        if (capability != null) {
+            disabled.add(capability);
+        }
+    }
+}
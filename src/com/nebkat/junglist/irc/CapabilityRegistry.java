@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Capabilities requested when connecting new sessions
+ *
+ * {@link Capability#MULTI_PREFIX}, {@link Capability#SERVER_TIME}, {@link Capability#BATCH},
+ * {@link Capability#AWAY_NOTIFY} and {@link Capability#EXTENDED_JOIN} are registered by default. Negotiation is
+ * skipped if no capabilities are registered.
+ */
+public class CapabilityRegistry {
+    private final Map<String, Capability> mCapabilities = new LinkedHashMap<>();
+
+    CapabilityRegistry() {
+        register(new Capability(Capability.MULTI_PREFIX));
+        register(new Capability(Capability.SERVER_TIME));
+        register(new Capability(Capability.BATCH));
+        register(new Capability(Capability.AWAY_NOTIFY));
+        register(new Capability(Capability.EXTENDED_JOIN));
+    }
+
+    /**
+     * Register a capability, replacing any with the same name.
+     *
+     * @param capability Capability.
+     */
+    public synchronized void register(Capability capability) {
+        mCapabilities.put(capability.getName(), capability);
+    }
+
+    /**
+     * Unregister a capability.
+     *
+     * @param name Capability name.
+     * @return Removed capability, or null if not registered.
+     */
+    public synchronized Capability unregister(String name) {
+        return mCapabilities.remove(name);
+    }
+
+    /**
+     * Unregister all capabilities, disabling negotiation.
+     */
+    public synchronized void clear() {
+        mCapabilities.clear();
+    }
+
+    /**
+     * Get a registered capability.
+     *
+     * @param name Capability name.
+     * @return Capability, or null if not registered.
+     */
+    public synchronized Capability get(String name) {
+        return mCapabilities.get(name);
+    }
+
+    /**
+     * Get all registered capabilities.
+     *
+     * @return Immutable snapshot of capabilities.
+     */
+    public synchronized Collection<Capability> getCapabilities() {
+        return Collections.unmodifiableList(new ArrayList<>(mCapabilities.values()));
+    }
+
+    /**
+     * Check whether any capabilities are registered.
+     *
+     * @return True if no capabilities are registered.
+     */
+    public synchronized boolean isEmpty() {
+        return mCapabilities.isEmpty();
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map of nicks or channel names to values, comparing keys using a {@link CaseMapping}
+ *
+ * Keys are hashed and compared case insensitively character by character, so lookups do not create lower case copies.
+ * Keys keep the case they were first added with.
+ *
+ * @param <V> Value type.
+ */
+public class CaseMappedMap<V> extends AbstractMap<String, V> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private CaseMapping mCaseMapping;
+    private Node<V>[] mTable;
+    private int mSize;
+    private int mModCount;
+
+    /**
+     * Create a new empty map.
+     *
+     * @param caseMapping Case mapping to compare keys with.
+     */
+    public CaseMappedMap(CaseMapping caseMapping) {
+        mCaseMapping = caseMapping;
+        mTable = newTable(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create a new map containing the entries of another map.
+     *
+     * @param caseMapping Case mapping to compare keys with.
+     * @param map Entries to add.
+     */
+    public CaseMappedMap(CaseMapping caseMapping, Map<String, ? extends V> map) {
+        mCaseMapping = caseMapping;
+        mTable = newTable(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, map.size() * 4 / 3)) << 1));
+        putAll(map);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <V> Node<V>[] newTable(int capacity) {
+        return (Node<V>[]) new Node[capacity];
+    }
+
+    /**
+     * Get the case mapping keys are compared with.
+     *
+     * @return Case mapping.
+     */
+    public CaseMapping getCaseMapping() {
+        return mCaseMapping;
+    }
+
+    /**
+     * Change the case mapping keys are compared with. Keys that become equal are merged, keeping the latest value.
+     *
+     * @param caseMapping Case mapping.
+     */
+    public void setCaseMapping(CaseMapping caseMapping) {
+        if (caseMapping == mCaseMapping) {
+            return;
+        }
+        Node<V>[] table = mTable;
+        mCaseMapping = caseMapping;
+        mTable = newTable(table.length);
+        mSize = 0;
+        mModCount++;
+        for (Node<V> head : table) {
+            for (Node<V> node = head; node != null; node = node.mNext) {
+                put(node.mKey, node.mValue);
+            }
+        }
+    }
+
+    private int hash(String key) {
+        int hash = mCaseMapping.hashCode(key);
+        return hash ^ (hash >>> 16);
+    }
+
+    private Node<V> getNode(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String string = (String) key;
+        int hash = hash(string);
+        for (Node<V> node = mTable[hash & (mTable.length - 1)]; node != null; node = node.mNext) {
+            if (node.mHash == hash && mCaseMapping.equals(node.mKey, string)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public V get(Object key) {
+        Node<V> node = getNode(key);
+        return node != null ? node.mValue : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return getNode(key) != null;
+    }
+
+    /**
+     * Get the key of an entry as it was first added.
+     *
+     * @param key Key in any case.
+     * @return Stored key, or null if not present.
+     */
+    public String getKey(String key) {
+        Node<V> node = getNode(key);
+        return node != null ? node.mKey : null;
+    }
+
+    @Override
+    public V put(String key, V value) {
+        int hash = hash(key);
+        int index = hash & (mTable.length - 1);
+        for (Node<V> node = mTable[index]; node != null; node = node.mNext) {
+            if (node.mHash == hash && mCaseMapping.equals(node.mKey, key)) {
+                V previous = node.mValue;
+                node.mValue = value;
+                return previous;
+            }
+        }
+        mTable[index] = new Node<>(hash, key, value, mTable[index]);
+        mModCount++;
+        if (++mSize > mTable.length * 3 / 4) {
+            resize();
+        }
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String string = (String) key;
+        int hash = hash(string);
+        int index = hash & (mTable.length - 1);
+        Node<V> previous = null;
+        for (Node<V> node = mTable[index]; node != null; previous = node, node = node.mNext) {
+            if (node.mHash == hash && mCaseMapping.equals(node.mKey, string)) {
+                removeNode(index, previous, node);
+                return node.mValue;
+            }
+        }
+        return null;
+    }
+
+    private void removeNode(int index, Node<V> previous, Node<V> node) {
+        if (previous == null) {
+            mTable[index] = node.mNext;
+        } else {
+            previous.mNext = node.mNext;
+        }
+        mSize--;
+        mModCount++;
+    }
+
+    @Override
+    public void clear() {
+        if (mSize > 0) {
+            mTable = newTable(INITIAL_CAPACITY);
+            mSize = 0;
+            mModCount++;
+        }
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    private void resize() {
+        Node<V>[] table = mTable;
+        Node<V>[] resized = newTable(table.length * 2);
+        for (Node<V> head : table) {
+            Node<V> node = head;
+            while (node != null) {
+                Node<V> next = node.mNext;
+                int index = node.mHash & (resized.length - 1);
+                node.mNext = resized[index];
+                resized[index] = node;
+                node = next;
+            }
+        }
+        mTable = resized;
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return mSize;
+            }
+
+            @Override
+            public void clear() {
+                CaseMappedMap.this.clear();
+            }
+        };
+    }
+
+    private static class Node<V> implements Entry<String, V> {
+        private final int mHash;
+        private final String mKey;
+        private V mValue;
+        private Node<V> mNext;
+
+        private Node(int hash, String key, V value, Node<V> next) {
+            mHash = hash;
+            mKey = key;
+            mValue = value;
+            mNext = next;
+        }
+
+        @Override
+        public String getKey() {
+            return mKey;
+        }
+
+        @Override
+        public V getValue() {
+            return mValue;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V previous = mValue;
+            mValue = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            return mKey.equals(entry.getKey()) && (mValue == null ? entry.getValue() == null : mValue.equals(entry.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return mKey.hashCode() ^ (mValue == null ? 0 : mValue.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return mKey + "=" + mValue;
+        }
+    }
+
+    private class EntryIterator implements Iterator<Entry<String, V>> {
+        private final Node<V>[] mIteratedTable = mTable;
+        private int mExpectedModCount = mModCount;
+        private int mIndex;
+        private Node<V> mNext;
+        private Node<V> mCurrent;
+
+        private EntryIterator() {
+            advance(null);
+        }
+
+        private void advance(Node<V> node) {
+            Node<V> next = node != null ? node.mNext : null;
+            while (next == null && mIndex < mIteratedTable.length) {
+                next = mIteratedTable[mIndex++];
+            }
+            mNext = next;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext != null;
+        }
+
+        @Override
+        public Entry<String, V> next() {
+            if (mModCount != mExpectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (mNext == null) {
+                throw new NoSuchElementException();
+            }
+            mCurrent = mNext;
+            advance(mCurrent);
+            return mCurrent;
+        }
+
+        @Override
+        public void remove() {
+            if (mCurrent == null) {
+                throw new IllegalStateException();
+            }
+            if (mModCount != mExpectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            CaseMappedMap.this.remove(mCurrent.mKey);
+            mCurrent = null;
+            mExpectedModCount = mModCount;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+/**
+ * Case mapping used by a server to compare nicks and channel names, as advertised by <code>CASEMAPPING</code>
+ */
+public enum CaseMapping {
+    /**
+     * Only <code>A-Z</code> are mapped to <code>a-z</code>.
+     */
+    ASCII("ascii", 'Z'),
+    /**
+     * <code>A-Z[]\^</code> are mapped to <code>a-z{}|~</code>.
+     */
+    RFC1459("rfc1459", '^'),
+    /**
+     * <code>A-Z[]\</code> are mapped to <code>a-z{}|</code>.
+     */
+    STRICT_RFC1459("strict-rfc1459", ']');
+
+    private final String mName;
+    private final char[] mLower = new char[128];
+
+    CaseMapping(String name, char last) {
+        mName = name;
+        for (char c = 0; c < mLower.length; c++) {
+            // Upper case letters and the following characters up to last are 32 below their lower case form
+            mLower[c] = c >= 'A' && c <= last ? (char) (c + ('a' - 'A')) : c;
+        }
+    }
+
+    /**
+     * Get the case mapping advertised with a name.
+     *
+     * @param name Case mapping name, such as <code>rfc1459</code>.
+     * @return Case mapping, or null if not known.
+     */
+    public static CaseMapping forName(String name) {
+        for (CaseMapping caseMapping : values()) {
+            if (caseMapping.mName.equalsIgnoreCase(name)) {
+                return caseMapping;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the name the case mapping is advertised with.
+     *
+     * @return Case mapping name.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Convert a character to lower case.
+     *
+     * @param c Character.
+     * @return Lower case character.
+     */
+    public char toLowerCase(char c) {
+        return c < mLower.length ? mLower[c] : c;
+    }
+
+    /**
+     * Convert a string to lower case.
+     *
+     * @param string String.
+     * @return Lower case string.
+     */
+    public String toLowerCase(String string) {
+        char[] chars = null;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            char lower = toLowerCase(c);
+            if (lower != c) {
+                if (chars == null) {
+                    chars = string.toCharArray();
+                }
+                chars[i] = lower;
+            }
+        }
+        return chars == null ? string : new String(chars);
+    }
+
+    /**
+     * Compare two strings ignoring case.
+     *
+     * @param a First string.
+     * @param b Second string.
+     * @return True if the strings are equal.
+     */
+    public boolean equals(String a, String b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.length() != b.length()) {
+            return false;
+        }
+        for (int i = 0; i < a.length(); i++) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(i);
+            if (ca != cb && toLowerCase(ca) != toLowerCase(cb)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get a hash code of a string ignoring case.
+     *
+     * @param string String.
+     * @return Hash code equal for all strings this case mapping considers equal.
+     */
+    public int hashCode(String string) {
+        int hash = 0;
+        for (int i = 0; i < string.length(); i++) {
+            hash = 31 * hash + toLowerCase(string.charAt(i));
+        }
+        return hash;
+    }
+}
@@ -19,21 +19,28 @@
 
 package com.nebkat.junglist.irc;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * IRC channel.
+ *
+ * Channel state is written by the session input thread only. Members are kept in a persistent map that is replaced
+ * on every change, so readers on other threads get consistent snapshots without locking or copying.
  */
 public class Channel extends Target {
-    private String mTopic;
-    private String mTopicSetBy;
-    private long mTopicSetAt;
+    private volatile String mTopic;
+    private volatile String mTopicSetBy;
+    private volatile long mTopicSetAt;
 
-    private Map<String, User> mUsers = new HashMap<>();
+    private volatile PersistentCaseMappedMap<Membership> mMembers;
 
     public Channel(Session session, String channel) {
         super(session, channel);
+        mMembers = PersistentCaseMappedMap.empty(session.getCaseMapping());
     }
 
     /**
@@ -89,13 +96,112 @@ public class Channel extends Target {
     /**
      * Get channel user list.
      *
-     * @return Immutable map containing users.
+     * @return Immutable snapshot containing users.
      */
     public Map<String, User> getUsers() {
-        return new HashMap<>(mUsers);
+        return new UserMap(mMembers);
     }
 
-    protected Map<String, User> getUsersModifiable() {
-        return mUsers;
+    /**
+     * Get channel members along with their membership modes.
+     *
+     * @return Immutable snapshot containing memberships.
+     */
+    public Map<String, Membership> getMembers() {
+        return mMembers;
+    }
+
+    /**
+     * Get the amount of users in the channel.
+     *
+     * @return User count.
+     */
+    public int getUserCount() {
+        return mMembers.size();
+    }
+
+    /**
+     * Get the membership of a user.
+     *
+     * @param nick User nick.
+     * @return Membership, or null if the user is not in the channel.
+     */
+    public Membership getMembership(String nick) {
+        return mMembers.get(nick);
+    }
+
+    protected void putMember(String nick, Membership membership) {
+        mMembers = mMembers.with(nick, membership);
+    }
+
+    protected Membership removeMember(String nick) {
+        PersistentCaseMappedMap<Membership> members = mMembers;
+        Membership membership = members.get(nick);
+        if (membership != null) {
+            mMembers = members.without(nick);
+        }
+        return membership;
+    }
+
+    protected void clearMembers() {
+        mMembers = mMembers.cleared();
+    }
+
+    protected void setCaseMapping(CaseMapping caseMapping) {
+        mMembers = mMembers.withCaseMapping(caseMapping);
+    }
+
+    /**
+     * View of a member snapshot mapping nicks to users
+     */
+    private static class UserMap extends AbstractMap<String, User> {
+        private final PersistentCaseMappedMap<Membership> mMembers;
+
+        private UserMap(PersistentCaseMappedMap<Membership> members) {
+            mMembers = members;
+        }
+
+        @Override
+        public User get(Object key) {
+            Membership membership = mMembers.get(key);
+            return membership != null ? membership.getUser() : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return mMembers.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return mMembers.size();
+        }
+
+        @Override
+        public Set<Entry<String, User>> entrySet() {
+            return new AbstractSet<Entry<String, User>>() {
+                @Override
+                public Iterator<Entry<String, User>> iterator() {
+                    Iterator<Entry<String, Membership>> iterator = mMembers.entrySet().iterator();
+                    return new Iterator<Entry<String, User>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, User> next() {
+                            Entry<String, Membership> entry = iterator.next();
+                            return new SimpleImmutableEntry<>(entry.getKey(), entry.getValue().getUser());
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return mMembers.size();
+                }
+            };
+        }
     }
 }
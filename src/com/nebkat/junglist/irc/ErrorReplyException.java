@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+import com.nebkat.junglist.irc.events.irc.response.error.ErrorMessageEvent;
+
+/**
+ * Failure of a request answered by the server with an error numeric, such as {@link
+ * com.nebkat.junglist.irc.events.irc.response.error.NoSuchNickErrorEvent}
+ */
+public class ErrorReplyException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    // Events are not serializable
+    private final transient ErrorMessageEvent mError;
+
+    public ErrorReplyException(ErrorMessageEvent error) {
+        super(error.getMessage());
+        mError = error;
+    }
+
+    /**
+     * Get the error the server replied with.
+     *
+     * @return Error event.
+     */
+    public ErrorMessageEvent getError() {
+        return mError;
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Server features and limits advertised with <code>RPL_ISUPPORT</code> (005)
+ *
+ * Features that have not been advertised take their common defaults.
+ */
+public class ISupport {
+    public static final String PREFIX = "PREFIX";
+    public static final String CHANTYPES = "CHANTYPES";
+    public static final String CHANMODES = "CHANMODES";
+    public static final String TARGMAX = "TARGMAX";
+    public static final String MAXTARGETS = "MAXTARGETS";
+    public static final String LINELEN = "LINELEN";
+    public static final String CASEMAPPING = "CASEMAPPING";
+    public static final String NICKLEN = "NICKLEN";
+    public static final String USERLEN = "USERLEN";
+    public static final String HOSTLEN = "HOSTLEN";
+    public static final String MODES = "MODES";
+    public static final String NETWORK = "NETWORK";
+    public static final String STATUSMSG = "STATUSMSG";
+
+    public static final int DEFAULT_LINE_LENGTH = 512;
+    public static final int DEFAULT_NICK_LENGTH = 9;
+    public static final int DEFAULT_USER_LENGTH = 10;
+    public static final int DEFAULT_HOST_LENGTH = 63;
+    public static final int DEFAULT_MODES = 3;
+
+    private static final String DEFAULT_PREFIX = "(ov)@+";
+    private static final String DEFAULT_CHANTYPES = "#&";
+    private static final String DEFAULT_CHANMODES = "b,k,l,imnpst";
+
+    /**
+     * How a channel mode uses its parameter.
+     */
+    public enum ModeType {
+        /**
+         * Adds or removes an entry of a list and always has a parameter, such as bans.
+         */
+        LIST,
+        /**
+         * Setting that always has a parameter, such as the channel key.
+         */
+        PARAMETER,
+        /**
+         * Setting that only has a parameter when set, such as the user limit.
+         */
+        PARAMETER_WHEN_SET,
+        /**
+         * Setting without a parameter.
+         */
+        FLAG,
+        /**
+         * Membership prefix given to a nick, such as operator.
+         */
+        PREFIX
+    }
+
+    private final Map<String, String> mTokens = new LinkedHashMap<>();
+
+    // Derived from the tokens whenever they change
+    private volatile String mPrefixModes;
+    private volatile String mPrefixes;
+    private volatile String mChannelTypes;
+    private volatile String[] mChannelModes;
+    private volatile Map<String, Integer> mTargetMax;
+    private volatile int mMaxTargets;
+    private volatile int mLineLength;
+    private volatile int mNickLength;
+    private volatile int mUserLength;
+    private volatile int mHostLength;
+    private volatile int mModes;
+    private volatile CaseMapping mCaseMapping;
+    private volatile String mStatusMessage;
+
+    public ISupport() {
+        update();
+    }
+
+    /**
+     * Apply advertised tokens.
+     *
+     * @param tokens Token names mapped to their values, or to null if the token is no longer supported.
+     */
+    protected synchronized void apply(Map<String, String> tokens) {
+        for (Map.Entry<String, String> token : tokens.entrySet()) {
+            if (token.getValue() == null) {
+                mTokens.remove(token.getKey());
+            } else {
+                mTokens.put(token.getKey(), token.getValue());
+            }
+        }
+        update();
+    }
+
+    /**
+     * Forget all advertised tokens.
+     */
+    protected synchronized void clear() {
+        mTokens.clear();
+        update();
+    }
+
+    private void update() {
+        String prefix = mTokens.getOrDefault(PREFIX, DEFAULT_PREFIX);
+        int close = prefix.indexOf(')');
+        if (prefix.startsWith("(") && close != -1 && prefix.length() - close - 1 == close - 1) {
+            mPrefixModes = prefix.substring(1, close);
+            mPrefixes = prefix.substring(close + 1);
+        } else {
+            mPrefixModes = "";
+            mPrefixes = "";
+        }
+
+        mChannelTypes = mTokens.getOrDefault(CHANTYPES, DEFAULT_CHANTYPES);
+
+        String[] channelModes = {"", "", "", ""};
+        String[] split = mTokens.getOrDefault(CHANMODES, DEFAULT_CHANMODES).split(",", -1);
+        System.arraycopy(split, 0, channelModes, 0, Math.min(split.length, channelModes.length));
+        mChannelModes = channelModes;
+
+        Map<String, Integer> targetMax = new HashMap<>();
+        String targmax = mTokens.get(TARGMAX);
+        if (targmax != null) {
+            for (String entry : targmax.split(",")) {
+                int colon = entry.indexOf(':');
+                if (colon <= 0) {
+                    continue;
+                }
+                String value = entry.substring(colon + 1);
+                targetMax.put(entry.substring(0, colon).toUpperCase(), value.isEmpty() ? Integer.MAX_VALUE : parseInt(value, 1));
+            }
+        }
+        mTargetMax = Collections.unmodifiableMap(targetMax);
+        mMaxTargets = mTokens.containsKey(MAXTARGETS) ? parseInt(mTokens.get(MAXTARGETS), Integer.MAX_VALUE) : 0;
+
+        mLineLength = Math.max(DEFAULT_LINE_LENGTH, parseInt(mTokens.get(LINELEN), DEFAULT_LINE_LENGTH));
+        mNickLength = parseInt(mTokens.get(NICKLEN), DEFAULT_NICK_LENGTH);
+        mUserLength = parseInt(mTokens.get(USERLEN), DEFAULT_USER_LENGTH);
+        mHostLength = parseInt(mTokens.get(HOSTLEN), DEFAULT_HOST_LENGTH);
+        mModes = mTokens.containsKey(MODES) ? parseInt(mTokens.get(MODES), Integer.MAX_VALUE) : DEFAULT_MODES;
+
+        CaseMapping caseMapping = CaseMapping.forName(mTokens.getOrDefault(CASEMAPPING, CaseMapping.RFC1459.getName()));
+        mCaseMapping = caseMapping != null ? caseMapping : CaseMapping.RFC1459;
+
+        mStatusMessage = mTokens.getOrDefault(STATUSMSG, "");
+    }
+
+    private static int parseInt(String value, int def) {
+        if (value == null || value.isEmpty()) {
+            return def;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /**
+     * Parse an advertised token value, unescaping <code>\xHH</code> sequences.
+     *
+     * @param value Escaped value.
+     * @return Unescaped value.
+     */
+    public static String unescape(String value) {
+        if (value.indexOf('\\') == -1) {
+            return value;
+        }
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 3 < value.length() && value.charAt(i + 1) == 'x') {
+                int hi = Character.digit(value.charAt(i + 2), 16);
+                int lo = Character.digit(value.charAt(i + 3), 16);
+                if (hi != -1 && lo != -1) {
+                    builder.append((char) (hi << 4 | lo));
+                    i += 3;
+                    continue;
+                }
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Get the value of an advertised token.
+     *
+     * @param token Token name.
+     * @return Token value, empty if the token has no value, or null if not advertised.
+     */
+    public synchronized String getToken(String token) {
+        return mTokens.get(token);
+    }
+
+    /**
+     * Get all advertised tokens.
+     *
+     * @return Map of token names to values.
+     */
+    public synchronized Map<String, String> getTokens() {
+        return new LinkedHashMap<>(mTokens);
+    }
+
+    /**
+     * Check if a token has been advertised.
+     *
+     * @param token Token name.
+     * @return True if advertised.
+     */
+    public synchronized boolean isSupported(String token) {
+        return mTokens.containsKey(token);
+    }
+
+    /**
+     * Get the channel modes given to members, ordered from highest to lowest rank.
+     *
+     * @return Membership modes, such as <code>ov</code>.
+     */
+    public String getPrefixModes() {
+        return mPrefixModes;
+    }
+
+    /**
+     * Get the nick prefixes of channel members, in the same order as {@link #getPrefixModes()}.
+     *
+     * @return Membership prefixes, such as <code>@+</code>.
+     */
+    public String getPrefixes() {
+        return mPrefixes;
+    }
+
+    /**
+     * Check if a character is a membership prefix.
+     *
+     * @param c Character.
+     * @return True if the character is a membership prefix.
+     */
+    public boolean isPrefix(char c) {
+        return mPrefixes.indexOf(c) != -1;
+    }
+
+    /**
+     * Get the membership mode for a prefix.
+     *
+     * @param prefix Prefix, such as <code>@</code>.
+     * @return Mode, such as <code>o</code>, or 0 if not a prefix.
+     */
+    public char getPrefixMode(char prefix) {
+        int index = mPrefixes.indexOf(prefix);
+        return index != -1 ? mPrefixModes.charAt(index) : 0;
+    }
+
+    /**
+     * Get the prefix for a membership mode.
+     *
+     * @param mode Mode, such as <code>o</code>.
+     * @return Prefix, such as <code>@</code>, or 0 if not a membership mode.
+     */
+    public char getPrefix(char mode) {
+        int index = mPrefixModes.indexOf(mode);
+        return index != -1 ? mPrefixes.charAt(index) : 0;
+    }
+
+    /**
+     * Get the channel name prefixes.
+     *
+     * @return Channel types, such as <code>#&amp;</code>.
+     */
+    public String getChannelTypes() {
+        return mChannelTypes;
+    }
+
+    /**
+     * Check if a target is a channel.
+     *
+     * @param target Target name.
+     * @return True if the target starts with a channel type.
+     */
+    public boolean isChannel(String target) {
+        return !target.isEmpty() && mChannelTypes.indexOf(target.charAt(0)) != -1;
+    }
+
+    /**
+     * Get how a channel mode uses its parameter.
+     *
+     * @param mode Channel mode.
+     * @return Mode type, or null if the mode is unknown.
+     */
+    public ModeType getModeType(char mode) {
+        if (mPrefixModes.indexOf(mode) != -1) {
+            return ModeType.PREFIX;
+        }
+        String[] channelModes = mChannelModes;
+        if (channelModes[0].indexOf(mode) != -1) {
+            return ModeType.LIST;
+        } else if (channelModes[1].indexOf(mode) != -1) {
+            return ModeType.PARAMETER;
+        } else if (channelModes[2].indexOf(mode) != -1) {
+            return ModeType.PARAMETER_WHEN_SET;
+        } else if (channelModes[3].indexOf(mode) != -1) {
+            return ModeType.FLAG;
+        }
+        return null;
+    }
+
+    /**
+     * Get the maximum amount of targets a command accepts in one line.
+     *
+     * Uses <code>TARGMAX</code> or <code>MAXTARGETS</code> if advertised, otherwise a single target for all commands
+     * except <code>JOIN</code> and <code>PART</code>, which always accept lists.
+     *
+     * @param command Command, such as <code>PRIVMSG</code>.
+     * @return Maximum amount of targets, {@link Integer#MAX_VALUE} if unlimited.
+     */
+    public int getMaxTargets(String command) {
+        Integer max = mTargetMax.get(command);
+        if (max != null) {
+            return max;
+        }
+        if (Irc.COMMAND_JOIN.equals(command) || Irc.COMMAND_PART.equals(command)) {
+            return Integer.MAX_VALUE;
+        }
+        if (mMaxTargets > 0 && (Irc.COMMAND_PRIVMSG.equals(command) || Irc.COMMAND_NOTICE.equals(command))) {
+            return mMaxTargets;
+        }
+        return 1;
+    }
+
+    /**
+     * Get the maximum length of lines sent by the server, excluding message tags and including the line ending.
+     *
+     * @return Maximum line length.
+     */
+    public int getLineLength() {
+        return mLineLength;
+    }
+
+    /**
+     * Get the maximum nick length.
+     *
+     * @return Maximum nick length.
+     */
+    public int getNickLength() {
+        return mNickLength;
+    }
+
+    /**
+     * Get the maximum user name length.
+     *
+     * @return Maximum user name length.
+     */
+    public int getUserLength() {
+        return mUserLength;
+    }
+
+    /**
+     * Get the maximum host name length.
+     *
+     * @return Maximum host name length.
+     */
+    public int getHostLength() {
+        return mHostLength;
+    }
+
+    /**
+     * Get the maximum amount of channel modes with parameters in one <code>MODE</code> command.
+     *
+     * @return Maximum amount of modes.
+     */
+    public int getModes() {
+        return mModes;
+    }
+
+    /**
+     * Get the network name.
+     *
+     * @return Network name, or null if not advertised.
+     */
+    public synchronized String getNetwork() {
+        return mTokens.get(NETWORK);
+    }
+
+    /**
+     * Get the case mapping used by the server.
+     *
+     * @return Case mapping.
+     */
+    public CaseMapping getCaseMapping() {
+        return mCaseMapping;
+    }
+
+    /**
+     * Get the membership prefixes that can precede a channel name to message only members of that rank.
+     *
+     * @return Status message prefixes, such as <code>@+</code>.
+     */
+    public String getStatusMessagePrefixes() {
+        return mStatusMessage;
+    }
+}
@@ -19,23 +19,33 @@
 
 package com.nebkat.junglist.irc;
 
-import com.nebkat.junglist.irc.events.EventHandler;
+import com.nebkat.junglist.irc.events.AsyncEventDispatcher;
 import com.nebkat.junglist.irc.events.EventHandlerManager;
-import com.nebkat.junglist.irc.events.EventListener;
-import com.nebkat.junglist.irc.events.irc.PingEvent;
+import com.nebkat.junglist.irc.utils.RateLimiter;
+import com.nebkat.junglist.irc.utils.SelectorPool;
+import com.nebkat.junglist.irc.utils.TokenBucketRateLimiter;
+import com.nebkat.junglist.irc.utils.Utils;
+import com.nebkat.junglist.irc.utils.VirtualThreadFactory;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
 
 /**
  * Irc Controller
  *
  * Manages library
  */
-public class Irc implements EventListener {
+public class Irc {
     // Statics
     public static final int IRC_DEFAULT_PORT = 6667;
+    public static final int MAX_LINE_LENGTH = 510;
+    public static final int DEFAULT_SELECTOR_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
 
     // Commands
     public static final String COMMAND_PING = "PING";
@@ -55,6 +65,9 @@ public class Irc implements EventListener {
     public static final String COMMAND_INVITE = "INVITE";
     public static final String COMMAND_WHOIS = "WHOIS";
     public static final String COMMAND_USERHOST = "USERHOST";
+    public static final String COMMAND_NAMES = "NAMES";
+    public static final String COMMAND_ISON = "ISON";
+    public static final String COMMAND_CAP = "CAP";
 
     public static final String TEXT_RESET = "\u000f";
     public static final String TEXT_ITALIC = "\u0016";
@@ -63,14 +76,63 @@ public class Irc implements EventListener {
 
     private final EventHandlerManager mEventHandlerManager;
 
+    private final CapabilityRegistry mCapabilityRegistry = new CapabilityRegistry();
+
     private final Set<Session> mSessions = Collections.synchronizedSet(new HashSet<>());
 
+    private final Transport mTransport;
+    private final ThreadFactory mThreadFactory;
+    private final int mSelectorThreads;
+    private SelectorPool mSelectorPool;
+    private ScheduledExecutorService mScheduler;
+    private volatile Supplier<RateLimiter> mRateLimiterFactory = () -> TokenBucketRateLimiter.perLine(Session.FLOOD_BURST, Session.FLOOD_INTERVAL);
+
+    /**
+     * Session socket handling.
+     */
+    public enum Transport {
+        /**
+         * Blocking sockets with an input and an output thread per session.
+         */
+        THREADED,
+        /**
+         * Blocking sockets with an input and an output virtual thread per session. Requires Java 21+.
+         */
+        VIRTUAL_THREADED,
+        /**
+         * Non-blocking sockets driven by a small pool of selector threads shared by all sessions.
+         */
+        SELECTOR
+    }
+
     /**
      * Initialize a new Irc instance.
      */
     public Irc() {
+        this(Transport.THREADED);
+    }
+
+    /**
+     * Initialize a new Irc instance using a specific transport.
+     *
+     * @param transport Session transport.
+     */
+    public Irc(Transport transport) {
+        this(transport, DEFAULT_SELECTOR_THREADS);
+    }
+
+    /**
+     * Initialize a new Irc instance using a specific transport.
+     *
+     * @param transport Session transport.
+     * @param selectorThreads Amount of selector threads to use for the {@link Transport#SELECTOR} transport.
+     * @throws UnsupportedOperationException If {@link Transport#VIRTUAL_THREADED} is requested but not supported by the runtime.
+     */
+    public Irc(Transport transport, int selectorThreads) {
+        mTransport = transport;
+        mThreadFactory = transport == Transport.VIRTUAL_THREADED ? new VirtualThreadFactory() : Thread::new;
+        mSelectorThreads = selectorThreads;
         mEventHandlerManager = new EventHandlerManager();
-        mEventHandlerManager.registerEvents(this);
     }
 
     /**
@@ -84,6 +146,80 @@ public class Irc implements EventListener {
         return mEventHandlerManager;
     }
 
+    /**
+     * Get the registry of IRCv3 capabilities requested from servers on connecting.
+     *
+     * @return Capability registry.
+     */
+    public CapabilityRegistry getCapabilityRegistry() {
+        return mCapabilityRegistry;
+    }
+
+    /**
+     * Get session transport.
+     *
+     * @return Session transport.
+     */
+    public Transport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * Get the factory used to create session input and output threads.
+     *
+     * @return Thread factory.
+     */
+    public ThreadFactory getThreadFactory() {
+        return mThreadFactory;
+    }
+
+    /**
+     * Set the factory creating the rate limiter of each new session connection, for example
+     * {@link TokenBucketRateLimiter#ircu()} for servers applying per byte penalties.
+     *
+     * @param rateLimiterFactory Rate limiter factory, or null to write without limits.
+     */
+    public void setRateLimiterFactory(Supplier<RateLimiter> rateLimiterFactory) {
+        mRateLimiterFactory = rateLimiterFactory;
+    }
+
+    /**
+     * Get the factory creating the rate limiter of each new session connection.
+     *
+     * @return Rate limiter factory, or null if writes are not limited.
+     */
+    public Supplier<RateLimiter> getRateLimiterFactory() {
+        return mRateLimiterFactory;
+    }
+
+    /**
+     * Get the selector pool used by the {@link Transport#SELECTOR} transport, starting it if required.
+     *
+     * @return Selector pool.
+     */
+    protected synchronized SelectorPool getSelectorPool() throws IOException {
+        if (mSelectorPool == null) {
+            mSelectorPool = new SelectorPool(mSelectorThreads);
+        }
+        return mSelectorPool;
+    }
+
+    /**
+     * Get the scheduler used for session timers, starting it if required.
+     *
+     * @return Scheduler.
+     */
+    protected synchronized ScheduledExecutorService getScheduler() {
+        if (mScheduler == null) {
+            mScheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+                Thread thread = new Thread(runnable, "IrcScheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return mScheduler;
+    }
+
     /**
      * Connect to an IRC server.
      *
@@ -145,14 +281,21 @@ public class Irc implements EventListener {
     public void close() {
         mEventHandlerManager.clear();
         mSessions.forEach(Session::disconnect);
-    }
-
-    /**
-     * Listeners
-     */
-    @EventHandler
-    protected void onPing(PingEvent event) {
-        Irc.pong(event.getSession(), event.getPingSource());
+        AsyncEventDispatcher dispatcher = mEventHandlerManager.getAsyncDispatcher();
+        if (dispatcher != null) {
+            mEventHandlerManager.setAsyncDispatcher(null);
+            dispatcher.shutdown();
+        }
+        synchronized (this) {
+            if (mSelectorPool != null) {
+                mSelectorPool.shutdown();
+                mSelectorPool = null;
+            }
+            if (mScheduler != null) {
+                mScheduler.shutdownNow();
+                mScheduler = null;
+            }
+        }
     }
 
     /**
@@ -220,11 +363,12 @@ public class Irc implements EventListener {
      *
      * @param target Target to send the message to.
      * @param message Message to send.
+     * @return True if all lines were queued, false if not connected or a line was dropped because its queue was full.
      *
      * @see Target
      */
-    public static void message(Session session, Target target, String message) {
-        Irc.message(session, target.getName(), message);
+    public static boolean message(Session session, Target target, String message) {
+        return Irc.message(session, target.getName(), message);
     }
 
     /**
@@ -232,14 +376,25 @@ public class Irc implements EventListener {
      *
      * @param target Target to send the message to.
      * @param message Message to send.
+     * @return True if all lines were queued, false if not connected or a line was dropped because its queue was full.
      *
      * @see Target
      */
-    public static void message(Session session, String target, String message) {
-        String[] lines = message.split("\n");
-        for (String line : lines) {
-            Irc.write(session, COMMAND_PRIVMSG, target + " :" + line);
-        }
+    public static boolean message(Session session, String target, String message) {
+        return Irc.writeBatched(session, COMMAND_PRIVMSG, Collections.singletonList(target), message);
+    }
+
+    /**
+     * Send a message to multiple targets, combining as many targets per line as the server allows.
+     *
+     * @param targets Targets to send the message to.
+     * @param message Message to send.
+     * @return True if all lines were queued, false if not connected or a line was dropped because its queue was full.
+     *
+     * @see ISupport#getMaxTargets(String)
+     */
+    public static boolean message(Session session, Collection<String> targets, String message) {
+        return Irc.writeBatched(session, COMMAND_PRIVMSG, targets, message);
     }
 
     /**
@@ -247,11 +402,12 @@ public class Irc implements EventListener {
      *
      * @param target Target to send the message to.
      * @param message Message to send.
+     * @return True if all lines were queued, false if not connected or a line was dropped because its queue was full.
      *
      * @see Target
      */
-    public static void notice(Session session, Target target, String message) {
-        Irc.notice(session, target.getName(), message);
+    public static boolean notice(Session session, Target target, String message) {
+        return Irc.notice(session, target.getName(), message);
     }
 
     /**
@@ -259,36 +415,51 @@ public class Irc implements EventListener {
      *
      * @param target Target to send the message to.
      * @param message Message to send.
+     * @return True if all lines were queued, false if not connected or a line was dropped because its queue was full.
      *
      * @see Target
      */
-    public static void notice(Session session, String target, String message) {
-        String[] lines = message.split("\n");
-        for (String line : lines) {
-            Irc.write(session, COMMAND_NOTICE, target + " :" + line);
-        }
+    public static boolean notice(Session session, String target, String message) {
+        return Irc.writeBatched(session, COMMAND_NOTICE, Collections.singletonList(target), message);
+    }
+
+    /**
+     * Send a notice message to multiple targets, combining as many targets per line as the server allows.
+     *
+     * @param targets Targets to send the message to.
+     * @param message Message to send.
+     * @return True if all lines were queued, false if not connected or a line was dropped because its queue was full.
+     *
+     * @see ISupport#getMaxTargets(String)
+     */
+    public static boolean notice(Session session, Collection<String> targets, String message) {
+        return Irc.writeBatched(session, COMMAND_NOTICE, targets, message);
     }
 
     /**
      * Request channel topic.
      *
      * @param channel Channel to request topic of.
+     * @return Future completed with the channel once its topic is known, or failed with an
+     * {@link ErrorReplyException} if the channel does not exist or its topic is not visible.
      *
      * @see Channel
      */
-    public static void topic(Session session, Channel channel) {
-        Irc.topic(session, channel.getName());
+    public static CompletableFuture<Channel> topic(Session session, Channel channel) {
+        return Irc.topic(session, channel.getName());
     }
 
     /**
      * Request channel topic.
      *
      * @param channel Channel to request topic of.
+     * @return Future completed with the channel once its topic is known, or failed with an
+     * {@link ErrorReplyException} if the channel does not exist or its topic is not visible.
      *
      * @see Channel
      */
-    public static void topic(Session session, String channel) {
-        Irc.write(session, COMMAND_TOPIC, channel);
+    public static CompletableFuture<Channel> topic(Session session, String channel) {
+        return session.getRequestTracker().topic(channel);
     }
 
     /**
@@ -354,6 +525,19 @@ public class Irc implements EventListener {
         Irc.write(session, COMMAND_JOIN, channel + (key != null ? " " + key : ""));
     }
 
+    /**
+     * Join multiple channels, combining as many channels per line as the server allows.
+     *
+     * @param channels Channels to join.
+     *
+     * @see ISupport#getMaxTargets(String)
+     */
+    public static void join(Session session, Collection<String> channels) {
+        for (String batch : Irc.batchTargets(session, COMMAND_JOIN, channels, MAX_LINE_LENGTH - COMMAND_JOIN.length() - 1)) {
+            Irc.write(session, COMMAND_JOIN, batch);
+        }
+    }
+
     /**
      * Leave a channel.
      *
@@ -656,12 +840,13 @@ public class Irc implements EventListener {
     }
 
     /**
-     * Request info about a user.
+     * Request info about a user. A reply cached by the session within its time to live is returned without a request.
      *
      * @param user User to request info about.
+     * @return Future completed with the info, or failed with an {@link ErrorReplyException} if there is no such nick.
      */
-    public static void whois(Session session, String user) {
-        Irc.write(session, COMMAND_WHOIS, user);
+    public static CompletableFuture<WhoisInfo> whois(Session session, String user) {
+        return session.getRequestTracker().whois(user);
     }
 
     /**
@@ -681,12 +866,45 @@ public class Irc implements EventListener {
     }
 
     /**
-     * Request a user's hostname
+     * Request a user's hostname. Hostnames already seen by the session are returned without a request, others
+     * requested at about the same time are combined into lines of up to five users.
      *
      * @param user User to request hostname for.
+     * @return Future completed with the source of the user, or null if the user is not online.
      */
-    public static void userhost(Session session, String user) {
-        Irc.write(session, COMMAND_USERHOST, user);
+    public static CompletableFuture<Source> userhost(Session session, String user) {
+        return session.getRequestTracker().userhost(user);
+    }
+
+    /**
+     * Check whether a user is online. Requests made at about the same time are combined into as few lines as
+     * possible.
+     *
+     * @param user User to check.
+     * @return Future completed with true if the user is online.
+     */
+    public static CompletableFuture<Boolean> ison(Session session, String user) {
+        return session.getRequestTracker().ison(user);
+    }
+
+    /**
+     * Request the users in a channel.
+     *
+     * @param channel Channel to request users of.
+     * @return Future completed with the channel once its users are known.
+     */
+    public static CompletableFuture<Channel> names(Session session, Channel channel) {
+        return Irc.names(session, channel.getName());
+    }
+
+    /**
+     * Request the users in a channel.
+     *
+     * @param channel Channel to request users of.
+     * @return Future completed with the channel once its users are known.
+     */
+    public static CompletableFuture<Channel> names(Session session, String channel) {
+        return session.getRequestTracker().names(channel);
     }
 
     /**
@@ -694,17 +912,82 @@ public class Irc implements EventListener {
      *
      * @param command Command to write.
      * @param data Command paramaters.
+     * @return True if queued, false if not connected or dropped because its queue was full.
+     */
+    public static boolean write(Session session, String command, String data) {
+        return Irc.write(session, command + " " + data);
+    }
+
+    /**
+     * Write a message command to multiple targets.
+     *
+     * Each line of the message is split so that it fits, as relayed by the server with our prefix, within the line
+     * length of the server. Targets are combined into as few lines as the remaining space and the server allow.
+     *
+     * @return True if all lines were queued.
      */
-    public static void write(Session session, String command, String data) {
-        Irc.write(session, command + " " + data);
+    private static boolean writeBatched(Session session, String command, Collection<String> targets, String message) {
+        // ":prefix COMMAND targets :text\r\n"
+        int available = session.getISupport().getLineLength() - 2 - session.getPrefixLength() - command.length() - 5;
+        int longestTarget = 0;
+        for (String target : targets) {
+            longestTarget = Math.max(longestTarget, Utils.utf8Length(target));
+        }
+        boolean written = true;
+        for (String line : message.split("\r?\n")) {
+            for (String part : Utils.splitUtf8(line, available - longestTarget)) {
+                int targetsAvailable = available - Utils.utf8Length(part);
+                for (String batch : Irc.batchTargets(session, command, targets, targetsAvailable)) {
+                    written &= Irc.write(session, command, batch + " :" + part);
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Combine targets into comma separated lists within the limits of the server.
+     *
+     * @param command Command the targets are used with.
+     * @param targets Targets to combine.
+     * @param available Bytes available for each list, at least one target is always included.
+     * @return Target lists.
+     */
+    private static List<String> batchTargets(Session session, String command, Collection<String> targets, int available) {
+        int maxTargets = session.getISupport().getMaxTargets(command);
+        List<String> batches = new ArrayList<>();
+        StringBuilder batch = new StringBuilder();
+        int count = 0;
+        int length = 0;
+        for (String target : targets) {
+            int targetLength = Utils.utf8Length(target);
+            if (count > 0 && (count >= maxTargets || length + 1 + targetLength > available)) {
+                batches.add(batch.toString());
+                batch.setLength(0);
+                count = 0;
+                length = 0;
+            }
+            if (count > 0) {
+                batch.append(',');
+                length++;
+            }
+            batch.append(target);
+            length += targetLength;
+            count++;
+        }
+        if (count > 0) {
+            batches.add(batch.toString());
+        }
+        return batches;
     }
 
     /**
      * Write a raw line.
      *
      * @param line Raw line to write.
+     * @return True if queued, false if not connected or dropped because its queue was full.
      */
-    public static void write(Session session, String line) {
-        session.write(line);
+    public static boolean write(Session session, String line) {
+        return session.write(line);
     }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+/**
+ * Compiled wildcard mask such as <code>nick!*@*.example.com</code>
+ *
+ * <code>*</code> matches any amount of characters and <code>?</code> matches exactly one character. The mask must
+ * match the whole text and is case insensitive.
+ */
+public class Mask {
+    private final String mMask;
+    private final String mFolded;
+    // Sections of the folded mask between '*' wildcards, the first and last are anchored
+    private final char[][] mSections;
+    private final boolean mWildcard;
+
+    private Mask(String mask) {
+        mMask = mask;
+
+        char[] folded = new char[mask.length()];
+        int stars = 0;
+        boolean wildcard = false;
+        for (int i = 0; i < folded.length; i++) {
+            char c = fold(mask.charAt(i));
+            folded[i] = c;
+            if (c == '*') {
+                stars++;
+                wildcard = true;
+            } else if (c == '?') {
+                wildcard = true;
+            }
+        }
+        mFolded = new String(folded);
+        mWildcard = wildcard;
+
+        mSections = new char[stars + 1][];
+        int section = 0;
+        int start = 0;
+        for (int i = 0; i <= folded.length; i++) {
+            if (i == folded.length || folded[i] == '*') {
+                char[] chars = new char[i - start];
+                System.arraycopy(folded, start, chars, 0, chars.length);
+                mSections[section++] = chars;
+                start = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Compile a mask.
+     *
+     * @param mask Wildcard mask.
+     * @return Compiled mask.
+     */
+    public static Mask compile(String mask) {
+        return new Mask(mask);
+    }
+
+    /**
+     * Check if a string matches the mask.
+     *
+     * @param text String to match.
+     * @return True if the whole string matches.
+     */
+    public boolean matches(String text) {
+        int length = text.length();
+        char[] head = mSections[0];
+        if (mSections.length == 1) {
+            return length == head.length && regionMatches(text, 0, head);
+        }
+        if (length < head.length || !regionMatches(text, 0, head)) {
+            return false;
+        }
+
+        char[] tail = mSections[mSections.length - 1];
+        int tailStart = length - tail.length;
+        if (tailStart < head.length || !regionMatches(text, tailStart, tail)) {
+            return false;
+        }
+
+        // Middle sections are matched at their first occurrence, leaving the most room for those that follow
+        int position = head.length;
+        for (int i = 1; i < mSections.length - 1; i++) {
+            char[] section = mSections[i];
+            int index = indexOf(text, section, position, tailStart);
+            if (index == -1) {
+                return false;
+            }
+            position = index + section.length;
+        }
+        return true;
+    }
+
+    /**
+     * Check if a source matches the mask.
+     *
+     * @param source Source to match.
+     * @return True if the raw source matches.
+     */
+    public boolean matches(Source source) {
+        return matches(source.getRaw());
+    }
+
+    private static boolean regionMatches(String text, int offset, char[] section) {
+        for (int i = 0; i < section.length; i++) {
+            char c = section[i];
+            if (c != '?' && fold(text.charAt(offset + i)) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(String text, char[] section, int from, int to) {
+        for (int i = from; i <= to - section.length; i++) {
+            if (regionMatches(text, i, section)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Get the original mask.
+     *
+     * @return Mask string.
+     */
+    public String getMask() {
+        return mMask;
+    }
+
+    /**
+     * Check if the mask contains any wildcards.
+     *
+     * @return True if the mask is not a literal.
+     */
+    public boolean isWildcard() {
+        return mWildcard;
+    }
+
+    /**
+     * Get the case folded characters preceding the first wildcard.
+     */
+    String getLiteralPrefix() {
+        int end = 0;
+        while (end < mFolded.length() && !isWildcard(mFolded.charAt(end))) {
+            end++;
+        }
+        return mFolded.substring(0, end);
+    }
+
+    /**
+     * Get the case folded characters following the last wildcard.
+     */
+    String getLiteralSuffix() {
+        int start = mFolded.length();
+        while (start > 0 && !isWildcard(mFolded.charAt(start - 1))) {
+            start--;
+        }
+        return mFolded.substring(start);
+    }
+
+    /**
+     * Get the case folded mask.
+     */
+    String getFolded() {
+        return mFolded;
+    }
+
+    private static boolean isWildcard(char c) {
+        return c == '*' || c == '?';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Mask && ((Mask) o).mFolded.equals(mFolded);
+    }
+
+    @Override
+    public int hashCode() {
+        return mFolded.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mMask;
+    }
+}
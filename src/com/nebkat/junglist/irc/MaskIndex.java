@@ -0,0 +1,359 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Set of {@link Mask}s that can be matched against a string at once, for ignore and ban lists
+ *
+ * Masks without wildcards are looked up directly. Other masks are indexed by the longer of their literal prefix or
+ * suffix, so only masks sharing a prefix or suffix with the string are tested. Masks beginning and ending with a
+ * wildcard, such as <code>*!ident@*</code>, are indexed by the first characters of their longest literal section and
+ * tested only if the string contains them. Masks without any such section are always tested.
+ */
+public class MaskIndex {
+    // Length of the literal section characters masks without prefix or suffix are indexed by
+    private static final int INFIX_LENGTH = 3;
+
+    private final Map<String, Mask> mExact = new HashMap<>();
+    private final Node mPrefixes = new Node();
+    private final Node mSuffixes = new Node();
+    private final Map<String, List<Mask>> mInfixes = new HashMap<>();
+    private final List<Mask> mUnindexed = new ArrayList<>();
+    private int mSize;
+
+    /**
+     * Add a mask to the index.
+     *
+     * @param mask Wildcard mask.
+     * @return False if the mask was already present.
+     */
+    public boolean add(String mask) {
+        return add(Mask.compile(mask));
+    }
+
+    /**
+     * Add a mask to the index.
+     *
+     * @param mask Compiled mask.
+     * @return False if the mask was already present.
+     */
+    public synchronized boolean add(Mask mask) {
+        boolean added;
+        if (!mask.isWildcard()) {
+            added = mExact.putIfAbsent(mask.getFolded(), mask) == null;
+        } else {
+            String prefix = mask.getLiteralPrefix();
+            String suffix = mask.getLiteralSuffix();
+            if (prefix.isEmpty() && suffix.isEmpty()) {
+                String infix = getInfix(mask);
+                if (infix != null) {
+                    List<Mask> masks = mInfixes.computeIfAbsent(infix, (key) -> new ArrayList<>(1));
+                    added = !masks.contains(mask) && masks.add(mask);
+                } else {
+                    added = !mUnindexed.contains(mask) && mUnindexed.add(mask);
+                }
+            } else if (prefix.length() >= suffix.length()) {
+                added = mPrefixes.add(prefix, 0, 1, mask);
+            } else {
+                added = mSuffixes.add(suffix, suffix.length() - 1, -1, mask);
+            }
+        }
+        if (added) {
+            mSize++;
+        }
+        return added;
+    }
+
+    /**
+     * Remove a mask from the index.
+     *
+     * @param mask Wildcard mask.
+     * @return False if the mask was not present.
+     */
+    public boolean remove(String mask) {
+        return remove(Mask.compile(mask));
+    }
+
+    /**
+     * Remove a mask from the index.
+     *
+     * @param mask Compiled mask.
+     * @return False if the mask was not present.
+     */
+    public synchronized boolean remove(Mask mask) {
+        boolean removed;
+        if (!mask.isWildcard()) {
+            removed = mExact.remove(mask.getFolded()) != null;
+        } else {
+            String prefix = mask.getLiteralPrefix();
+            String suffix = mask.getLiteralSuffix();
+            if (prefix.isEmpty() && suffix.isEmpty()) {
+                String infix = getInfix(mask);
+                if (infix != null) {
+                    List<Mask> masks = mInfixes.get(infix);
+                    removed = masks != null && masks.remove(mask);
+                    if (masks != null && masks.isEmpty()) {
+                        mInfixes.remove(infix);
+                    }
+                } else {
+                    removed = mUnindexed.remove(mask);
+                }
+            } else if (prefix.length() >= suffix.length()) {
+                removed = mPrefixes.remove(prefix, 0, 1, mask);
+            } else {
+                removed = mSuffixes.remove(suffix, suffix.length() - 1, -1, mask);
+            }
+        }
+        if (removed) {
+            mSize--;
+        }
+        return removed;
+    }
+
+    /**
+     * Remove all masks.
+     */
+    public synchronized void clear() {
+        mExact.clear();
+        mPrefixes.clear();
+        mSuffixes.clear();
+        mInfixes.clear();
+        mUnindexed.clear();
+        mSize = 0;
+    }
+
+    /**
+     * Get the amount of masks in the index.
+     *
+     * @return Mask count.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Check if any mask matches a string.
+     *
+     * @param text String to match.
+     * @return True if at least one mask matches.
+     */
+    public synchronized boolean matches(String text) {
+        return match(text, null);
+    }
+
+    /**
+     * Check if any mask matches a source.
+     *
+     * @param source Source to match.
+     * @return True if at least one mask matches.
+     */
+    public boolean matches(Source source) {
+        return matches(source.getRaw());
+    }
+
+    /**
+     * Get all masks matching a string.
+     *
+     * @param text String to match.
+     * @return Matching masks.
+     */
+    public synchronized List<Mask> getMatches(String text) {
+        List<Mask> matches = new ArrayList<>();
+        match(text, matches);
+        return matches;
+    }
+
+    /**
+     * Get all masks matching a source.
+     *
+     * @param source Source to match.
+     * @return Matching masks.
+     */
+    public List<Mask> getMatches(Source source) {
+        return getMatches(source.getRaw());
+    }
+
+    /**
+     * Find masks matching a string, stopping at the first if no list to collect them is given.
+     */
+    private boolean match(String text, List<Mask> matches) {
+        boolean found = false;
+        String folded = null;
+        if (!mExact.isEmpty()) {
+            folded = fold(text);
+            Mask exact = mExact.get(folded);
+            if (exact != null) {
+                if (matches == null) return true;
+                matches.add(exact);
+                found = true;
+            }
+        }
+
+        Node node = mPrefixes;
+        for (int i = 0; node != null; i++) {
+            if (node.mMasks != null) {
+                for (Mask mask : node.mMasks) {
+                    if (mask.matches(text)) {
+                        if (matches == null) return true;
+                        matches.add(mask);
+                        found = true;
+                    }
+                }
+            }
+            node = i < text.length() ? node.get(Mask.fold(text.charAt(i))) : null;
+        }
+
+        node = mSuffixes;
+        for (int i = text.length() - 1; node != null; i--) {
+            if (node.mMasks != null) {
+                for (Mask mask : node.mMasks) {
+                    if (mask.matches(text)) {
+                        if (matches == null) return true;
+                        matches.add(mask);
+                        found = true;
+                    }
+                }
+            }
+            node = i >= 0 ? node.get(Mask.fold(text.charAt(i))) : null;
+        }
+
+        if (!mInfixes.isEmpty() && text.length() >= INFIX_LENGTH) {
+            if (folded == null) {
+                folded = fold(text);
+            }
+            Set<String> tested = new HashSet<>();
+            for (int i = 0; i <= folded.length() - INFIX_LENGTH; i++) {
+                String infix = folded.substring(i, i + INFIX_LENGTH);
+                List<Mask> masks = mInfixes.get(infix);
+                if (masks == null || !tested.add(infix)) {
+                    continue;
+                }
+                for (Mask mask : masks) {
+                    if (mask.matches(text)) {
+                        if (matches == null) return true;
+                        matches.add(mask);
+                        found = true;
+                    }
+                }
+            }
+        }
+
+        for (Mask mask : mUnindexed) {
+            if (mask.matches(text)) {
+                if (matches == null) return true;
+                matches.add(mask);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get the first characters of the longest literal section of a mask, or null if all sections are too short.
+     */
+    private static String getInfix(Mask mask) {
+        String folded = mask.getFolded();
+        int bestStart = 0;
+        int bestLength = 0;
+        int start = 0;
+        for (int i = 0; i <= folded.length(); i++) {
+            if (i == folded.length() || folded.charAt(i) == '*' || folded.charAt(i) == '?') {
+                if (i - start > bestLength) {
+                    bestStart = start;
+                    bestLength = i - start;
+                }
+                start = i + 1;
+            }
+        }
+        return bestLength >= INFIX_LENGTH ? folded.substring(bestStart, bestStart + INFIX_LENGTH) : null;
+    }
+
+    private static String fold(String text) {
+        char[] chars = new char[text.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Mask.fold(text.charAt(i));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Trie node keyed by case folded characters, walked forwards for prefixes and backwards for suffixes.
+     */
+    private static class Node {
+        private Map<Character, Node> mChildren;
+        private List<Mask> mMasks;
+
+        private Node get(char c) {
+            return mChildren != null ? mChildren.get(c) : null;
+        }
+
+        private boolean add(String key, int index, int step, Mask mask) {
+            Node node = this;
+            for (int i = index; i >= 0 && i < key.length(); i += step) {
+                if (node.mChildren == null) {
+                    node.mChildren = new HashMap<>();
+                }
+                node = node.mChildren.computeIfAbsent(key.charAt(i), (c) -> new Node());
+            }
+            if (node.mMasks == null) {
+                node.mMasks = new ArrayList<>(1);
+            } else if (node.mMasks.contains(mask)) {
+                return false;
+            }
+            return node.mMasks.add(mask);
+        }
+
+        private boolean remove(String key, int index, int step, Mask mask) {
+            if (index < 0 || index >= key.length()) {
+                if (mMasks == null || !mMasks.remove(mask)) {
+                    return false;
+                }
+                if (mMasks.isEmpty()) {
+                    mMasks = null;
+                }
+                return true;
+            }
+            Node child = get(key.charAt(index));
+            if (child == null || !child.remove(key, index + step, step, mask)) {
+                return false;
+            }
+            // Prune nodes that no longer lead to any mask
+            if (child.mMasks == null && child.mChildren == null) {
+                mChildren.remove(key.charAt(index));
+                if (mChildren.isEmpty()) {
+                    mChildren = null;
+                }
+            }
+            return true;
+        }
+
+        private void clear() {
+            mChildren = null;
+            mMasks = null;
+        }
+    }
+}
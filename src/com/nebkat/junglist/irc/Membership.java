@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+/**
+ * Membership of a {@link User} in a {@link Channel}
+ *
+ * Membership modes such as op and voice are kept as a bitset, where each bit is the index of the mode in the
+ * <code>PREFIX</code> advertised by the server, so bit 0 is the highest ranked mode.
+ */
+public class Membership {
+    private final Channel mChannel;
+    private final User mUser;
+    private volatile int mModes;
+
+    protected Membership(Channel channel, User user) {
+        mChannel = channel;
+        mUser = user;
+    }
+
+    /**
+     * Get the channel.
+     *
+     * @return Channel.
+     */
+    public Channel getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * Get the user.
+     *
+     * @return User.
+     */
+    public User getUser() {
+        return mUser;
+    }
+
+    /**
+     * Get the membership modes as a bitset indexed by {@link ISupport#getPrefixModes()}.
+     *
+     * @return Mode bits.
+     */
+    public int getModes() {
+        return mModes;
+    }
+
+    /**
+     * Check if the user has a membership mode.
+     *
+     * @param mode Mode, such as <code>o</code>.
+     * @return True if the mode is set.
+     */
+    public boolean hasMode(char mode) {
+        int index = getISupport().getPrefixModes().indexOf(mode);
+        return index != -1 && (mModes & (1 << index)) != 0;
+    }
+
+    /**
+     * Check if the user is an operator, or has any higher ranked mode.
+     *
+     * @return True if op or above.
+     */
+    public boolean isOperator() {
+        int index = getISupport().getPrefixModes().indexOf('o');
+        // Bits below and including op are the modes ranked at least as high
+        return index != -1 && (mModes & ((2 << index) - 1)) != 0;
+    }
+
+    /**
+     * Check if the user is voiced.
+     *
+     * @return True if voiced.
+     */
+    public boolean isVoiced() {
+        return hasMode('v');
+    }
+
+    /**
+     * Get the prefix of the highest ranked mode, as shown before the nick in clients.
+     *
+     * @return Prefix, such as <code>@</code>, or 0 if no modes are set.
+     */
+    public char getPrefix() {
+        int modes = mModes;
+        String prefixes = getISupport().getPrefixes();
+        int index = Integer.numberOfTrailingZeros(modes);
+        return modes != 0 && index < prefixes.length() ? prefixes.charAt(index) : 0;
+    }
+
+    /**
+     * Get the prefixes of all modes, ordered from highest to lowest rank.
+     *
+     * @return Prefixes, such as <code>@+</code>.
+     */
+    public String getPrefixes() {
+        int modes = mModes;
+        String prefixes = getISupport().getPrefixes();
+        StringBuilder builder = new StringBuilder(Integer.bitCount(modes));
+        for (int i = 0; i < prefixes.length(); i++) {
+            if ((modes & (1 << i)) != 0) {
+                builder.append(prefixes.charAt(i));
+            }
+        }
+        return builder.toString();
+    }
+
+    protected void setModes(int modes) {
+        mModes = modes;
+    }
+
+    protected void setMode(char mode, boolean set) {
+        int index = getISupport().getPrefixModes().indexOf(mode);
+        if (index == -1 || index >= Integer.SIZE) {
+            return;
+        }
+        mModes = set ? mModes | (1 << index) : mModes & ~(1 << index);
+    }
+
+    private ISupport getISupport() {
+        return mChannel.getSession().getISupport();
+    }
+
+    @Override
+    public String toString() {
+        return getPrefixes() + mUser.getNick();
+    }
+}
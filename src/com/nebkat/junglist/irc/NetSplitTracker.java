@@ -0,0 +1,300 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+import com.nebkat.junglist.irc.events.Event;
+import com.nebkat.junglist.irc.events.bbq.NetJoinEvent;
+import com.nebkat.junglist.irc.events.bbq.NetSplitEvent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups the quits of a netsplit and the joins of the following netjoin into single events
+ *
+ * A batch is delivered once no matching quit or join has been seen for {@link #BATCH_DELAY} ms, or as soon as a
+ * netsplit between different servers starts. Batches are always delivered in order with the lines read from the
+ * session and never while holding the tracker lock.
+ */
+class NetSplitTracker {
+    private static final String TAG = "NetSplitTracker";
+
+    // Time without further quits or joins after which a batch is delivered
+    public static final long BATCH_DELAY = 2000;
+    // Time users lost in a netsplit are remembered for detecting their return
+    public static final long REJOIN_TIMEOUT = 30 * 60 * 1000;
+
+    private final Irc mIrc;
+    private final Session mSession;
+
+    private Batch mSplit;
+    private Batch mJoin;
+    private final CaseMappedMap<Split> mSplitNicks = new CaseMappedMap<>(CaseMapping.RFC1459);
+    private boolean mExpiryScheduled;
+
+    NetSplitTracker(Irc irc, Session session) {
+        mIrc = irc;
+        mSession = session;
+    }
+
+    /**
+     * Parse the servers from a netsplit quit message, for example <code>hub.example.net leaf.example.net</code>.
+     *
+     * @param message Quit message.
+     * @return Remaining and split server, or null if not a netsplit message.
+     */
+    static String[] parseServers(String message) {
+        if (message == null) {
+            return null;
+        }
+        int space = message.indexOf(' ');
+        if (space <= 0 || space == message.length() - 1 || message.indexOf(' ', space + 1) != -1) {
+            return null;
+        }
+        if (!isServerName(message, 0, space) || !isServerName(message, space + 1, message.length())) {
+            return null;
+        }
+        String server = message.substring(0, space);
+        String remoteServer = message.substring(space + 1);
+        return server.equals(remoteServer) ? null : new String[] {server, remoteServer};
+    }
+
+    private static boolean isServerName(String message, int start, int end) {
+        boolean dot = false;
+        for (int i = start; i < end; i++) {
+            char c = message.charAt(i);
+            if (c == '.') {
+                // Labels must not be empty
+                if (i == start || i == end - 1 || message.charAt(i - 1) == '.') return false;
+                dot = true;
+            } else if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '*')) {
+                return false;
+            }
+        }
+        return dot;
+    }
+
+    /**
+     * Record a user lost in a netsplit.
+     *
+     * @param servers Remaining and split server.
+     * @param nick User nick.
+     * @param channels Channels the user was in.
+     * @param time Local time the quit was received, in ms.
+     * @param flushed List to add the events of batches finished early to, to be delivered before the quit.
+     */
+    synchronized void onSplit(String[] servers, String nick, Set<Channel> channels, long time, List<Event> flushed) {
+        if (mSplit != null && !mSplit.matches(servers)) {
+            flushed.add(take(mSplit));
+        }
+        if (mSplit == null) {
+            expire(time);
+            mSplit = new Batch(true, servers, time);
+            schedule(mSplit);
+        }
+        mSplit.add(nick, channels, time);
+        mSplitNicks.put(nick, new Split(servers, time));
+        if (!mExpiryScheduled) {
+            scheduleExpiry(REJOIN_TIMEOUT);
+        }
+    }
+
+    /**
+     * Record a join, checking whether the user returns from a netsplit.
+     *
+     * @param nick User nick.
+     * @param channel Channel joined.
+     * @param time Local time the join was received, in ms.
+     * @param flushed List to add the events of batches finished early to, to be delivered before the join.
+     * @return True if the join is part of a netjoin.
+     */
+    synchronized boolean onJoin(String nick, Channel channel, long time, List<Event> flushed) {
+        Split split = mSplitNicks.get(nick);
+        if (split == null) {
+            return false;
+        }
+        if (time - split.mTime > REJOIN_TIMEOUT) {
+            mSplitNicks.remove(nick);
+            return false;
+        }
+        if (mJoin != null && !mJoin.matches(split.mServers)) {
+            flushed.add(take(mJoin));
+        }
+        if (mJoin == null) {
+            mJoin = new Batch(false, split.mServers, time);
+            schedule(mJoin);
+        }
+        mJoin.add(nick, channel, time);
+        return true;
+    }
+
+    /**
+     * Update the case mapping nicks are compared with.
+     *
+     * @param caseMapping Case mapping.
+     */
+    synchronized void setCaseMapping(CaseMapping caseMapping) {
+        mSplitNicks.setCaseMapping(caseMapping);
+    }
+
+    /**
+     * Forget all pending batches and split users.
+     */
+    synchronized void clear() {
+        mSplit = null;
+        mJoin = null;
+        mSplitNicks.clear();
+    }
+
+    private void expire(long time) {
+        Iterator<Split> iterator = mSplitNicks.values().iterator();
+        while (iterator.hasNext()) {
+            if (time - iterator.next().mTime > REJOIN_TIMEOUT) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void schedule(Batch batch) {
+        try {
+            mIrc.getScheduler().schedule(() -> onTimer(batch), BATCH_DELAY, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Could not schedule netsplit batch: Scheduler shut down");
+        }
+    }
+
+    private void onTimer(Batch batch) {
+        synchronized (this) {
+            if (batch != mSplit && batch != mJoin) {
+                return;
+            }
+            long remaining = batch.mLastTime + BATCH_DELAY - System.currentTimeMillis();
+            if (remaining > 0) {
+                try {
+                    mIrc.getScheduler().schedule(() -> onTimer(batch), remaining, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // Deliver now
+                }
+            }
+        }
+        // Handlers run in order with the events of the session rather than on the scheduler
+        mSession.execute(() -> deliver(batch));
+    }
+
+    private void deliver(Batch batch) {
+        Event event;
+        synchronized (this) {
+            // Finished early by a later quit or join
+            if (batch != mSplit && batch != mJoin) {
+                return;
+            }
+            event = take(batch);
+        }
+        mIrc.getEventHandlerManager().callEvent(event);
+    }
+
+    private void scheduleExpiry(long delay) {
+        try {
+            mIrc.getScheduler().schedule(this::onExpiryTimer, delay, TimeUnit.MILLISECONDS);
+            mExpiryScheduled = true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Could not schedule netsplit expiry: Scheduler shut down");
+        }
+    }
+
+    private synchronized void onExpiryTimer() {
+        mExpiryScheduled = false;
+        long now = System.currentTimeMillis();
+        expire(now);
+        if (!mSplitNicks.isEmpty()) {
+            long oldest = now;
+            for (Split split : mSplitNicks.values()) {
+                oldest = Math.min(oldest, split.mTime);
+            }
+            scheduleExpiry(oldest + REJOIN_TIMEOUT - now + 1);
+        }
+    }
+
+    private Event take(Batch batch) {
+        if (batch == mSplit) {
+            mSplit = null;
+        } else {
+            mJoin = null;
+            // Users are only expected to return once
+            batch.mNicks.forEach(mSplitNicks::remove);
+        }
+        long time = System.currentTimeMillis();
+        if (batch.mSplit) {
+            return new NetSplitEvent(time, mSession, batch.mServers[0], batch.mServers[1], new ArrayList<>(batch.mNicks), batch.mChannels);
+        } else {
+            return new NetJoinEvent(time, mSession, batch.mServers[0], batch.mServers[1], new ArrayList<>(batch.mNicks), batch.mChannels);
+        }
+    }
+
+    private static class Split {
+        private final String[] mServers;
+        private final long mTime;
+
+        private Split(String[] servers, long time) {
+            mServers = servers;
+            mTime = time;
+        }
+    }
+
+    private static class Batch {
+        private final boolean mSplit;
+        private final String[] mServers;
+        private final Set<String> mNicks = new LinkedHashSet<>();
+        private final Map<Channel, List<String>> mChannels = new LinkedHashMap<>();
+        private long mLastTime;
+
+        private Batch(boolean split, String[] servers, long time) {
+            mSplit = split;
+            mServers = servers;
+            mLastTime = time;
+        }
+
+        private boolean matches(String[] servers) {
+            return mServers[0].equals(servers[0]) && mServers[1].equals(servers[1]);
+        }
+
+        private void add(String nick, Set<Channel> channels, long time) {
+            mNicks.add(nick);
+            for (Channel channel : channels) {
+                mChannels.computeIfAbsent(channel, (key) -> new ArrayList<>()).add(nick);
+            }
+            mLastTime = Math.max(mLastTime, time);
+        }
+
+        private void add(String nick, Channel channel, long time) {
+            mNicks.add(nick);
+            mChannels.computeIfAbsent(channel, (key) -> new ArrayList<>()).add(nick);
+            mLastTime = Math.max(mLastTime, time);
+        }
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map of nicks or channel names to values, comparing keys using a {@link CaseMapping}
+ *
+ * Implemented as a hash array mapped trie, so {@link #with(String, Object)} and {@link #without(String)} return a new
+ * map sharing all but the path to the changed entry with the original. A map can be published through a volatile
+ * field by a single writer and read from any thread without locking or copying.
+ *
+ * @param <V> Value type.
+ */
+public final class PersistentCaseMappedMap<V> extends AbstractMap<String, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final Object[] NO_CHILDREN = new Object[0];
+
+    private final CaseMapping mCaseMapping;
+    private final BitmapNode mRoot;
+    private final int mSize;
+
+    private PersistentCaseMappedMap(CaseMapping caseMapping, BitmapNode root, int size) {
+        mCaseMapping = caseMapping;
+        mRoot = root;
+        mSize = size;
+    }
+
+    /**
+     * Get an empty map.
+     *
+     * @param caseMapping Case mapping to compare keys with.
+     * @return Empty map.
+     */
+    public static <V> PersistentCaseMappedMap<V> empty(CaseMapping caseMapping) {
+        return new PersistentCaseMappedMap<>(caseMapping, new BitmapNode(0, NO_CHILDREN), 0);
+    }
+
+    /**
+     * Get the case mapping keys are compared with.
+     *
+     * @return Case mapping.
+     */
+    public CaseMapping getCaseMapping() {
+        return mCaseMapping;
+    }
+
+    /**
+     * Get a map with keys compared using a different case mapping. Keys that become equal are merged, keeping the
+     * latest value.
+     *
+     * @param caseMapping Case mapping.
+     * @return Map with the same entries.
+     */
+    public PersistentCaseMappedMap<V> withCaseMapping(CaseMapping caseMapping) {
+        if (caseMapping == mCaseMapping) {
+            return this;
+        }
+        PersistentCaseMappedMap<V> map = empty(caseMapping);
+        for (Entry<String, V> entry : entrySet()) {
+            map = map.with(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    private int hash(String key) {
+        int hash = mCaseMapping.hashCode(key);
+        return hash ^ (hash >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Leaf<V> getLeaf(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        String string = (String) key;
+        int hash = hash(string);
+        Object node = mRoot;
+        int shift = 0;
+        while (true) {
+            if (node instanceof BitmapNode) {
+                BitmapNode bitmapNode = (BitmapNode) node;
+                int bit = 1 << ((hash >>> shift) & MASK);
+                if ((bitmapNode.mBitmap & bit) == 0) {
+                    return null;
+                }
+                node = bitmapNode.mChildren[Integer.bitCount(bitmapNode.mBitmap & (bit - 1))];
+                shift += BITS;
+            } else if (node instanceof Leaf) {
+                Leaf<V> leaf = (Leaf<V>) node;
+                return leaf.mHash == hash && mCaseMapping.equals(leaf.mKey, string) ? leaf : null;
+            } else {
+                CollisionNode collisionNode = (CollisionNode) node;
+                if (collisionNode.mHash != hash) {
+                    return null;
+                }
+                for (Leaf<?> leaf : collisionNode.mLeaves) {
+                    if (mCaseMapping.equals(leaf.mKey, string)) {
+                        return (Leaf<V>) leaf;
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        Leaf<V> leaf = getLeaf(key);
+        return leaf != null ? leaf.mValue : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return getLeaf(key) != null;
+    }
+
+    /**
+     * Get the key of an entry as it was first added.
+     *
+     * @param key Key in any case.
+     * @return Stored key, or null if not present.
+     */
+    public String getKey(String key) {
+        Leaf<V> leaf = getLeaf(key);
+        return leaf != null ? leaf.mKey : null;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Get a map with an entry added or replaced. A replaced entry keeps the case of its original key.
+     *
+     * @param key Key.
+     * @param value Value.
+     * @return Map containing the entry.
+     */
+    public PersistentCaseMappedMap<V> with(String key, V value) {
+        boolean[] added = new boolean[1];
+        BitmapNode root = (BitmapNode) put(mRoot, new Leaf<>(hash(key), key, value), 0, added);
+        if (root == mRoot) {
+            return this;
+        }
+        return new PersistentCaseMappedMap<>(mCaseMapping, root, added[0] ? mSize + 1 : mSize);
+    }
+
+    /**
+     * Get a map with an entry removed.
+     *
+     * @param key Key in any case.
+     * @return Map without the entry, or this map if not present.
+     */
+    public PersistentCaseMappedMap<V> without(String key) {
+        Object root = remove(mRoot, key, hash(key), 0);
+        if (root == mRoot) {
+            return this;
+        }
+        return new PersistentCaseMappedMap<>(mCaseMapping, root instanceof BitmapNode ? (BitmapNode) root : wrap(root), mSize - 1);
+    }
+
+    /**
+     * Get an empty map with the same case mapping.
+     *
+     * @return Empty map.
+     */
+    public PersistentCaseMappedMap<V> cleared() {
+        return mSize == 0 ? this : empty(mCaseMapping);
+    }
+
+    private static BitmapNode wrap(Object node) {
+        // Root must stay a bitmap node, a collapsed single child is placed back into one
+        if (node == null) {
+            return new BitmapNode(0, NO_CHILDREN);
+        }
+        int hash = node instanceof Leaf ? ((Leaf<?>) node).mHash : ((CollisionNode) node).mHash;
+        return new BitmapNode(1 << (hash & MASK), new Object[] {node});
+    }
+
+    private Object put(Object node, Leaf<V> leaf, int shift, boolean[] added) {
+        if (node instanceof BitmapNode) {
+            BitmapNode bitmapNode = (BitmapNode) node;
+            int bit = 1 << ((leaf.mHash >>> shift) & MASK);
+            int index = Integer.bitCount(bitmapNode.mBitmap & (bit - 1));
+            if ((bitmapNode.mBitmap & bit) == 0) {
+                added[0] = true;
+                Object[] children = new Object[bitmapNode.mChildren.length + 1];
+                System.arraycopy(bitmapNode.mChildren, 0, children, 0, index);
+                children[index] = leaf;
+                System.arraycopy(bitmapNode.mChildren, index, children, index + 1, bitmapNode.mChildren.length - index);
+                return new BitmapNode(bitmapNode.mBitmap | bit, children);
+            }
+            Object child = bitmapNode.mChildren[index];
+            Object replaced = put(child, leaf, shift + BITS, added);
+            if (replaced == child) {
+                return node;
+            }
+            Object[] children = bitmapNode.mChildren.clone();
+            children[index] = replaced;
+            return new BitmapNode(bitmapNode.mBitmap, children);
+        } else if (node instanceof Leaf) {
+            Leaf<?> existing = (Leaf<?>) node;
+            if (existing.mHash == leaf.mHash && mCaseMapping.equals(existing.mKey, leaf.mKey)) {
+                if (existing.mValue == leaf.mValue) {
+                    return node;
+                }
+                return new Leaf<>(existing.mHash, existing.mKey, leaf.mValue);
+            }
+            added[0] = true;
+            return merge(node, existing.mHash, leaf, shift);
+        } else {
+            CollisionNode collisionNode = (CollisionNode) node;
+            if (collisionNode.mHash != leaf.mHash) {
+                added[0] = true;
+                return merge(node, collisionNode.mHash, leaf, shift);
+            }
+            Leaf<?>[] leaves = collisionNode.mLeaves;
+            for (int i = 0; i < leaves.length; i++) {
+                if (mCaseMapping.equals(leaves[i].mKey, leaf.mKey)) {
+                    if (leaves[i].mValue == leaf.mValue) {
+                        return node;
+                    }
+                    Leaf<?>[] replaced = leaves.clone();
+                    replaced[i] = new Leaf<>(leaf.mHash, leaves[i].mKey, leaf.mValue);
+                    return new CollisionNode(leaf.mHash, replaced);
+                }
+            }
+            added[0] = true;
+            Leaf<?>[] extended = new Leaf<?>[leaves.length + 1];
+            System.arraycopy(leaves, 0, extended, 0, leaves.length);
+            extended[leaves.length] = leaf;
+            return new CollisionNode(leaf.mHash, extended);
+        }
+    }
+
+    private static Object merge(Object node, int hash, Leaf<?> leaf, int shift) {
+        if (hash == leaf.mHash) {
+            return new CollisionNode(hash, new Leaf<?>[] {(Leaf<?>) node, leaf});
+        }
+        int index = (hash >>> shift) & MASK;
+        int leafIndex = (leaf.mHash >>> shift) & MASK;
+        if (index == leafIndex) {
+            return new BitmapNode(1 << index, new Object[] {merge(node, hash, leaf, shift + BITS)});
+        }
+        return new BitmapNode((1 << index) | (1 << leafIndex), index < leafIndex ? new Object[] {node, leaf} : new Object[] {leaf, node});
+    }
+
+    /**
+     * Remove a key below a node.
+     *
+     * @return Same node if not found, replacement node, a single leaf or collision node to be pulled up, or null if
+     * the node became empty.
+     */
+    private Object remove(Object node, String key, int hash, int shift) {
+        if (node instanceof BitmapNode) {
+            BitmapNode bitmapNode = (BitmapNode) node;
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmapNode.mBitmap & bit) == 0) {
+                return node;
+            }
+            int index = Integer.bitCount(bitmapNode.mBitmap & (bit - 1));
+            Object child = bitmapNode.mChildren[index];
+            Object replaced = remove(child, key, hash, shift + BITS);
+            if (replaced == child) {
+                return node;
+            }
+            if (replaced == null) {
+                int length = bitmapNode.mChildren.length;
+                if (length == 1) {
+                    return null;
+                }
+                if (length == 2 && shift > 0) {
+                    Object remaining = bitmapNode.mChildren[index ^ 1];
+                    if (!(remaining instanceof BitmapNode)) {
+                        return remaining;
+                    }
+                }
+                Object[] children = new Object[length - 1];
+                System.arraycopy(bitmapNode.mChildren, 0, children, 0, index);
+                System.arraycopy(bitmapNode.mChildren, index + 1, children, index, length - index - 1);
+                return new BitmapNode(bitmapNode.mBitmap & ~bit, children);
+            }
+            if (bitmapNode.mChildren.length == 1 && shift > 0 && !(replaced instanceof BitmapNode)) {
+                return replaced;
+            }
+            Object[] children = bitmapNode.mChildren.clone();
+            children[index] = replaced;
+            return new BitmapNode(bitmapNode.mBitmap, children);
+        } else if (node instanceof Leaf) {
+            Leaf<?> leaf = (Leaf<?>) node;
+            return leaf.mHash == hash && mCaseMapping.equals(leaf.mKey, key) ? null : node;
+        } else {
+            CollisionNode collisionNode = (CollisionNode) node;
+            if (collisionNode.mHash != hash) {
+                return node;
+            }
+            Leaf<?>[] leaves = collisionNode.mLeaves;
+            for (int i = 0; i < leaves.length; i++) {
+                if (mCaseMapping.equals(leaves[i].mKey, key)) {
+                    if (leaves.length == 2) {
+                        return leaves[i ^ 1];
+                    }
+                    Leaf<?>[] reduced = new Leaf<?>[leaves.length - 1];
+                    System.arraycopy(leaves, 0, reduced, 0, i);
+                    System.arraycopy(leaves, i + 1, reduced, i, leaves.length - i - 1);
+                    return new CollisionNode(hash, reduced);
+                }
+            }
+            return node;
+        }
+    }
+
+    @Override
+    public V put(String key, V value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public V remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                return new EntryIterator<>(mRoot);
+            }
+
+            @Override
+            public int size() {
+                return mSize;
+            }
+        };
+    }
+
+    private static final class BitmapNode {
+        private final int mBitmap;
+        // Leaves, collision nodes or bitmap nodes, ordered by their bit
+        private final Object[] mChildren;
+
+        private BitmapNode(int bitmap, Object[] children) {
+            mBitmap = bitmap;
+            mChildren = children;
+        }
+    }
+
+    private static final class CollisionNode {
+        private final int mHash;
+        private final Leaf<?>[] mLeaves;
+
+        private CollisionNode(int hash, Leaf<?>[] leaves) {
+            mHash = hash;
+            mLeaves = leaves;
+        }
+    }
+
+    private static final class Leaf<V> implements Entry<String, V> {
+        private final int mHash;
+        private final String mKey;
+        private final V mValue;
+
+        private Leaf(int hash, String key, V value) {
+            mHash = hash;
+            mKey = key;
+            mValue = value;
+        }
+
+        @Override
+        public String getKey() {
+            return mKey;
+        }
+
+        @Override
+        public V getValue() {
+            return mValue;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            return mKey.equals(entry.getKey()) && (mValue == null ? entry.getValue() == null : mValue.equals(entry.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return mKey.hashCode() ^ (mValue == null ? 0 : mValue.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return mKey + "=" + mValue;
+        }
+    }
+
+    private static final class EntryIterator<V> implements Iterator<Entry<String, V>> {
+        // Hash is consumed after 7 levels, below which only collision nodes remain
+        private final Object[][] mStack = new Object[8][];
+        private final int[] mIndices = new int[8];
+        private int mDepth;
+        private Leaf<?>[] mCollision;
+        private int mCollisionIndex;
+        private Leaf<V> mNext;
+
+        private EntryIterator(BitmapNode root) {
+            mStack[0] = root.mChildren;
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            if (mCollision != null) {
+                if (mCollisionIndex < mCollision.length) {
+                    mNext = (Leaf<V>) mCollision[mCollisionIndex++];
+                    return;
+                }
+                mCollision = null;
+            }
+            while (mDepth >= 0) {
+                Object[] children = mStack[mDepth];
+                if (mIndices[mDepth] == children.length) {
+                    mDepth--;
+                    continue;
+                }
+                Object child = children[mIndices[mDepth]++];
+                if (child instanceof Leaf) {
+                    mNext = (Leaf<V>) child;
+                    return;
+                } else if (child instanceof BitmapNode) {
+                    mDepth++;
+                    mStack[mDepth] = ((BitmapNode) child).mChildren;
+                    mIndices[mDepth] = 0;
+                } else {
+                    mCollision = ((CollisionNode) child).mLeaves;
+                    mNext = (Leaf<V>) mCollision[0];
+                    mCollisionIndex = 1;
+                    return;
+                }
+            }
+            mNext = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mNext != null;
+        }
+
+        @Override
+        public Entry<String, V> next() {
+            Leaf<V> next = mNext;
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            advance();
+            return next;
+        }
+    }
+}
@@ -0,0 +1,734 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+import com.nebkat.junglist.irc.events.Event;
+import com.nebkat.junglist.irc.events.irc.response.IsOnEvent;
+import com.nebkat.junglist.irc.events.irc.response.NamesEndEvent;
+import com.nebkat.junglist.irc.events.irc.response.NamesListEvent;
+import com.nebkat.junglist.irc.events.irc.response.ResponseTopicMessageEvent;
+import com.nebkat.junglist.irc.events.irc.response.ResponseTopicNoneEvent;
+import com.nebkat.junglist.irc.events.irc.response.ResponseTopicSetByEvent;
+import com.nebkat.junglist.irc.events.irc.response.UserHostEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisAccountEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisChannelsEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisEndEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisIdleEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisServerEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisUserEvent;
+import com.nebkat.junglist.irc.events.irc.response.error.ErrorMessageEvent;
+import com.nebkat.junglist.irc.events.irc.response.error.NoSuchChannelErrorEvent;
+import com.nebkat.junglist.irc.events.irc.response.error.NoSuchNickErrorEvent;
+import com.nebkat.junglist.irc.events.irc.response.error.NotOnChannelErrorEvent;
+import com.nebkat.junglist.irc.utils.Utils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Correlates server replies with pending <code>WHOIS</code>, <code>USERHOST</code>, <code>TOPIC</code> and
+ * <code>NAMES</code> requests
+ *
+ * Requests are indexed by nick or channel, so concurrent requests for the same one share a single line and reply.
+ * <code>USERHOST</code> and <code>ISON</code> requests made within {@link #BATCH_DELAY} ms of each other are combined
+ * into as few lines as possible. Their replies omit nicks that are not online and are matched to lines in the order
+ * they were written instead, an empty reply only once it can not belong to another line. Requests fail with a
+ * {@link TimeoutException} if not answered within the session request timeout, expired by a single timer as they expire
+ * in the order they were made.
+ *
+ * Requests already answered by the {@link UserInfoCache} of the session are completed immediately. Other futures are
+ * completed on the thread reading from the session.
+ */
+class RequestTracker {
+    private static final String TAG = "RequestTracker";
+
+    // Time nicks are gathered for before a USERHOST or ISON line is written
+    public static final long BATCH_DELAY = 50;
+    // Nicks accepted by servers in a single USERHOST line
+    public static final int USERHOST_MAX_NICKS = 5;
+
+    private final Irc mIrc;
+    private final Session mSession;
+
+    private final CaseMappedMap<WhoisRequest> mWhois = new CaseMappedMap<>(CaseMapping.RFC1459);
+    private final CaseMappedMap<ChannelRequest> mTopics = new CaseMappedMap<>(CaseMapping.RFC1459);
+    private final CaseMappedMap<ChannelRequest> mNames = new CaseMappedMap<>(CaseMapping.RFC1459);
+    private final NickBatches<Source> mUserHosts = new NickBatches<>(Irc.COMMAND_USERHOST, USERHOST_MAX_NICKS);
+    private final NickBatches<String> mIsOns = new NickBatches<>(Irc.COMMAND_ISON, Integer.MAX_VALUE);
+
+    // Pending requests in the order they expire, including some already answered
+    private final ArrayDeque<Request<?>> mExpiry = new ArrayDeque<>();
+    private boolean mSweepScheduled;
+
+    // Topic request answered with a topic, finished by the following setter reply or any other line
+    private ChannelRequest mTopicAwaitingSetBy;
+
+    // Checked for every line without locking
+    private volatile int mPending;
+
+    RequestTracker(Irc irc, Session session) {
+        mIrc = irc;
+        mSession = session;
+    }
+
+    /**
+     * Request information about a user.
+     *
+     * @param nick User nick.
+     * @return Future completed with the information, or failed with an {@link ErrorReplyException} if there is no
+     * such nick.
+     */
+    CompletableFuture<WhoisInfo> whois(String nick) {
+        WhoisInfo cached = mSession.getUserInfoCache().getWhois(nick);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<WhoisInfo> future;
+        List<Request<?>> finished = new ArrayList<>(1);
+        synchronized (this) {
+            WhoisRequest request = mWhois.get(nick);
+            if (request == null) {
+                if (!isConnected()) {
+                    return disconnected();
+                }
+                request = new WhoisRequest(nick);
+                mWhois.put(nick, request);
+                add(request);
+                if (!Irc.write(mSession, Irc.COMMAND_WHOIS, nick)) {
+                    finish(finished, request, null, new IOException("Could not write " + request));
+                }
+            }
+            future = copy(request.mFuture);
+        }
+        for (Request<?> request : finished) {
+            request.complete();
+        }
+        return future;
+    }
+
+    /**
+     * Request the source of a user.
+     *
+     * @param nick User nick.
+     * @return Future completed with the source, or null if the user is not online.
+     */
+    CompletableFuture<Source> userhost(String nick) {
+        Source cached = mSession.getUserInfoCache().getSource(nick);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return lookup(mUserHosts, nick, Function.identity());
+    }
+
+    /**
+     * Request whether a user is online.
+     *
+     * @param nick User nick.
+     * @return Future completed with true if the user is online.
+     */
+    CompletableFuture<Boolean> ison(String nick) {
+        return lookup(mIsOns, nick, Objects::nonNull);
+    }
+
+    private <V, R> CompletableFuture<R> lookup(NickBatches<V> batches, String nick, Function<V, R> function) {
+        CompletableFuture<Map<String, V>> replies;
+        List<Request<?>> finished = new ArrayList<>(1);
+        synchronized (this) {
+            NickBatch<V> batch = batches.mIndex.get(nick);
+            if (batch == null) {
+                if (!isConnected()) {
+                    return disconnected();
+                }
+                batch = batches.add(finished, nick);
+            }
+            replies = batch.mFuture;
+        }
+        for (Request<?> request : finished) {
+            request.complete();
+        }
+        CompletableFuture<R> future = new CompletableFuture<>();
+        replies.whenComplete((values, throwable) -> {
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+            } else {
+                future.complete(function.apply(values.get(nick)));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Request the topic of a channel.
+     *
+     * @param channel Channel name.
+     * @return Future completed with the channel once its topic is known.
+     */
+    CompletableFuture<Channel> topic(String channel) {
+        return channelRequest(mTopics, Irc.COMMAND_TOPIC, channel);
+    }
+
+    /**
+     * Request the names of the users in a channel.
+     *
+     * @param channel Channel name.
+     * @return Future completed with the channel once its members are known.
+     */
+    CompletableFuture<Channel> names(String channel) {
+        return channelRequest(mNames, Irc.COMMAND_NAMES, channel);
+    }
+
+    private CompletableFuture<Channel> channelRequest(CaseMappedMap<ChannelRequest> requests, String command, String channel) {
+        CompletableFuture<Channel> future;
+        List<Request<?>> finished = new ArrayList<>(1);
+        synchronized (this) {
+            ChannelRequest request = requests.get(channel);
+            if (request == null) {
+                if (!isConnected()) {
+                    return disconnected();
+                }
+                request = new ChannelRequest(requests, channel);
+                requests.put(channel, request);
+                add(request);
+                if (!Irc.write(mSession, command, channel)) {
+                    finish(finished, request, null, new IOException("Could not write " + request));
+                }
+            }
+            future = copy(request.mFuture);
+        }
+        for (Request<?> request : finished) {
+            request.complete();
+        }
+        return future;
+    }
+
+    /**
+     * Complete the requests answered by an event.
+     *
+     * @param event Event received from the server, after the session state has been updated.
+     */
+    void onEvent(Event event) {
+        if (mPending == 0) {
+            return;
+        }
+        List<Request<?>> finished = new ArrayList<>(2);
+        synchronized (this) {
+            ChannelRequest awaiting = mTopicAwaitingSetBy;
+            if (awaiting != null && !(event instanceof ResponseTopicSetByEvent
+                    && awaiting.matches(((ResponseTopicSetByEvent) event).getChannel()))) {
+                // Not every server sends who set the topic
+                mTopicAwaitingSetBy = null;
+                finish(finished, awaiting, awaiting.mChannel, null);
+            }
+
+            if (event instanceof WhoisEvent) {
+                WhoisEvent whoisEvent = (WhoisEvent) event;
+                WhoisRequest request = mWhois.get(whoisEvent.getNick());
+                if (request != null) {
+                    if (event instanceof WhoisEndEvent) {
+                        WhoisInfo whois = request.build();
+                        mSession.getUserInfoCache().putWhois(whois);
+                        finish(finished, request, whois, null);
+                    } else {
+                        request.apply(whoisEvent);
+                    }
+                }
+            } else if (event instanceof UserHostEvent) {
+                UserHostEvent userHostEvent = (UserHostEvent) event;
+                mUserHosts.onReply(finished, userHostEvent.getNicks(), userHostEvent.getHosts());
+            } else if (event instanceof IsOnEvent) {
+                String[] nicks = ((IsOnEvent) event).getNicks();
+                mIsOns.onReply(finished, nicks, nicks);
+            } else if (event instanceof ResponseTopicMessageEvent) {
+                ChannelRequest request = mTopics.get(((ResponseTopicMessageEvent) event).getChannel().getName());
+                if (request != null) {
+                    request.mChannel = ((ResponseTopicMessageEvent) event).getChannel();
+                    mTopicAwaitingSetBy = request;
+                }
+            } else if (event instanceof ResponseTopicSetByEvent) {
+                finishChannel(finished, mTopics, ((ResponseTopicSetByEvent) event).getChannel());
+            } else if (event instanceof ResponseTopicNoneEvent) {
+                finishChannel(finished, mTopics, ((ResponseTopicNoneEvent) event).getChannel());
+            } else if (event instanceof NamesListEvent) {
+                NamesListEvent namesListEvent = (NamesListEvent) event;
+                Channel channel = namesListEvent.getChannel();
+                // Members of channels we are not in are collected from the reply alone
+                ChannelRequest request = mNames.get(channel.getName());
+                if (request != null && !mSession.isJoined(channel)) {
+                    if (request.mChannel == null) {
+                        request.mChannel = channel;
+                    }
+                    mSession.addNames(request.mChannel, namesListEvent.getNames(), false);
+                }
+            } else if (event instanceof NamesEndEvent) {
+                finishChannel(finished, mNames, ((NamesEndEvent) event).getChannel());
+            } else if (event instanceof NoSuchNickErrorEvent) {
+                NoSuchNickErrorEvent error = (NoSuchNickErrorEvent) event;
+                failRequest(finished, mWhois.get(error.getNick()), error);
+            } else if (event instanceof NoSuchChannelErrorEvent) {
+                NoSuchChannelErrorEvent error = (NoSuchChannelErrorEvent) event;
+                failRequest(finished, mTopics.get(error.getChannel()), error);
+                failRequest(finished, mNames.get(error.getChannel()), error);
+            } else if (event instanceof NotOnChannelErrorEvent) {
+                NotOnChannelErrorEvent error = (NotOnChannelErrorEvent) event;
+                failRequest(finished, mTopics.get(error.getChannel()), error);
+            }
+        }
+        for (Request<?> request : finished) {
+            request.complete();
+        }
+    }
+
+    /**
+     * Update the case mapping nicks and channel names are compared with.
+     *
+     * @param caseMapping Case mapping.
+     */
+    synchronized void setCaseMapping(CaseMapping caseMapping) {
+        mWhois.setCaseMapping(caseMapping);
+        mTopics.setCaseMapping(caseMapping);
+        mNames.setCaseMapping(caseMapping);
+        mUserHosts.mIndex.setCaseMapping(caseMapping);
+        mIsOns.mIndex.setCaseMapping(caseMapping);
+    }
+
+    /**
+     * Fail all pending requests, as no replies will arrive.
+     */
+    void clear() {
+        List<Request<?>> finished = new ArrayList<>();
+        synchronized (this) {
+            IOException exception = new IOException("Session disconnected");
+            for (Request<?> request : mExpiry) {
+                if (!request.mDone) {
+                    finish(finished, request, null, exception);
+                }
+            }
+            mExpiry.clear();
+            mTopicAwaitingSetBy = null;
+            mUserHosts.mEmptyReplies = 0;
+            mIsOns.mEmptyReplies = 0;
+        }
+        for (Request<?> request : finished) {
+            request.complete();
+        }
+    }
+
+    /**
+     * Get the amount of requests waiting for a reply.
+     *
+     * @return Pending requests.
+     */
+    int getPendingCount() {
+        return mPending;
+    }
+
+    private boolean isConnected() {
+        return mSession.getStatus() == Session.Status.CONNECTED;
+    }
+
+    private static <T> CompletableFuture<T> disconnected() {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(new IOException("Session not connected"));
+        return future;
+    }
+
+    /**
+     * Create a future completed with a shared future, so callers can not cancel the request for others.
+     */
+    private static <T> CompletableFuture<T> copy(CompletableFuture<T> shared) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        shared.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+            } else {
+                future.complete(value);
+            }
+        });
+        return future;
+    }
+
+    private void add(Request<?> request) {
+        // Drop requests already answered from the head
+        while (!mExpiry.isEmpty() && mExpiry.peek().mDone) {
+            mExpiry.poll();
+        }
+        mExpiry.add(request);
+        mPending++;
+        if (!mSweepScheduled) {
+            schedule(request.mDeadline);
+        }
+    }
+
+    private <T> void finish(List<Request<?>> finished, Request<T> request, T result, Throwable error) {
+        request.mResult = result;
+        request.mError = error;
+        request.mDone = true;
+        request.remove();
+        mPending--;
+        finished.add(request);
+    }
+
+    private void finishChannel(List<Request<?>> finished, CaseMappedMap<ChannelRequest> requests, Channel channel) {
+        ChannelRequest request = requests.get(channel.getName());
+        if (request != null) {
+            if (request == mTopicAwaitingSetBy) {
+                mTopicAwaitingSetBy = null;
+            }
+            finish(finished, request, request.mChannel != null ? request.mChannel : channel, null);
+        }
+    }
+
+    private void failRequest(List<Request<?>> finished, Request<?> request, ErrorMessageEvent error) {
+        if (request != null) {
+            if (request == mTopicAwaitingSetBy) {
+                mTopicAwaitingSetBy = null;
+            }
+            finish(finished, request, null, new ErrorReplyException(error));
+        }
+    }
+
+    private void schedule(long deadline) {
+        try {
+            long delay = Math.max(0, deadline - System.currentTimeMillis());
+            mIrc.getScheduler().schedule(this::sweep, delay, TimeUnit.MILLISECONDS);
+            mSweepScheduled = true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Could not schedule request timeout: Scheduler shut down");
+        }
+    }
+
+    private void sweep() {
+        List<Request<?>> finished = new ArrayList<>();
+        synchronized (this) {
+            mSweepScheduled = false;
+            long now = System.currentTimeMillis();
+            Request<?> request;
+            while ((request = mExpiry.peek()) != null && (request.mDone || request.mDeadline <= now)) {
+                mExpiry.poll();
+                if (!request.mDone) {
+                    if (request == mTopicAwaitingSetBy) {
+                        mTopicAwaitingSetBy = null;
+                    }
+                    finish(finished, request, null, new TimeoutException("No reply to " + request));
+                }
+            }
+            if (request != null) {
+                schedule(request.mDeadline);
+            }
+        }
+        for (Request<?> request : finished) {
+            request.complete();
+        }
+    }
+
+    private abstract class Request<T> {
+        protected final CompletableFuture<T> mFuture = new CompletableFuture<>();
+        private final long mDeadline = System.currentTimeMillis() + mSession.getRequestTimeout();
+        // Written under the tracker lock, read when completing
+        private boolean mDone;
+        private T mResult;
+        private Throwable mError;
+
+        /**
+         * Remove the request from its index.
+         */
+        protected abstract void remove();
+
+        private void complete() {
+            if (mError != null) {
+                mFuture.completeExceptionally(mError);
+            } else {
+                mFuture.complete(mResult);
+            }
+        }
+    }
+
+    private class WhoisRequest extends Request<WhoisInfo> {
+        private final String mNick;
+        private String mReplyNick;
+        private String mUser;
+        private String mHost;
+        private String mRealname;
+        private String mServer;
+        private String mServerInfo;
+        private long mIdle;
+        private long mSignOn;
+        private String[] mChannels = new String[0];
+        private String mAccount;
+
+        private WhoisRequest(String nick) {
+            mNick = nick;
+        }
+
+        private void apply(WhoisEvent event) {
+            if (event instanceof WhoisUserEvent) {
+                WhoisUserEvent userEvent = (WhoisUserEvent) event;
+                mReplyNick = userEvent.getNick();
+                mUser = userEvent.getUser();
+                mHost = userEvent.getHost();
+                mRealname = userEvent.getRealname();
+            } else if (event instanceof WhoisServerEvent) {
+                mServer = ((WhoisServerEvent) event).getServer();
+                mServerInfo = ((WhoisServerEvent) event).getServerInfo();
+            } else if (event instanceof WhoisIdleEvent) {
+                mIdle = ((WhoisIdleEvent) event).getIdle();
+                mSignOn = ((WhoisIdleEvent) event).getSignOn();
+            } else if (event instanceof WhoisChannelsEvent) {
+                // Long channel lists are split over several replies
+                String[] channels = ((WhoisChannelsEvent) event).getChannels();
+                String[] merged = new String[mChannels.length + channels.length];
+                System.arraycopy(mChannels, 0, merged, 0, mChannels.length);
+                System.arraycopy(channels, 0, merged, mChannels.length, channels.length);
+                mChannels = merged;
+            } else if (event instanceof WhoisAccountEvent) {
+                mAccount = ((WhoisAccountEvent) event).getAccount();
+            }
+        }
+
+        private WhoisInfo build() {
+            return new WhoisInfo(mReplyNick != null ? mReplyNick : mNick, mUser, mHost, mRealname, mServer,
+                    mServerInfo, mIdle, mSignOn, mChannels, mAccount);
+        }
+
+        @Override
+        protected void remove() {
+            if (mWhois.get(mNick) == this) {
+                mWhois.remove(mNick);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return Irc.COMMAND_WHOIS + " " + mNick;
+        }
+    }
+
+    /**
+     * Nicks requested with a command accepting several nicks per line, gathered into batches
+     */
+    private class NickBatches<V> {
+        private final String mCommand;
+        private final int mMaxNicks;
+        private final CaseMappedMap<NickBatch<V>> mIndex = new CaseMappedMap<>(CaseMapping.RFC1459);
+        // Batches written and waiting for a reply, in the order they were written
+        private final ArrayDeque<NickBatch<V>> mWritten = new ArrayDeque<>();
+        private NickBatch<V> mCurrent;
+        // Empty replies received while several batches were waiting, not yet known to belong to any of them
+        private int mEmptyReplies;
+
+        private NickBatches(String command, int maxNicks) {
+            mCommand = command;
+            mMaxNicks = maxNicks;
+        }
+
+        private NickBatch<V> add(List<Request<?>> finished, String nick) {
+            int length = Utils.utf8Length(nick);
+            if (mCurrent != null && mCurrent.mLength + 1 + length > getAvailableLength()) {
+                write(finished, mCurrent);
+            }
+            NickBatch<V> batch = mCurrent;
+            boolean scheduled = true;
+            if (batch == null) {
+                batch = new NickBatch<>(this);
+                mCurrent = batch;
+                RequestTracker.this.add(batch);
+                scheduled = scheduleWrite(batch);
+            }
+            batch.mLength += (batch.mNicks.isEmpty() ? 0 : 1) + length;
+            batch.mNicks.add(nick);
+            mIndex.put(nick, batch);
+            if (!scheduled || batch.mNicks.size() >= mMaxNicks) {
+                write(finished, batch);
+            }
+            return batch;
+        }
+
+        private void write(List<Request<?>> finished, NickBatch<V> batch) {
+            if (batch != mCurrent) {
+                return;
+            }
+            mCurrent = null;
+            if (Irc.write(mSession, mCommand, String.join(" ", batch.mNicks))) {
+                mWritten.add(batch);
+            } else {
+                // Never answered, so must not take the place of a written batch
+                finish(finished, batch, null, new IOException("Could not write " + batch));
+            }
+        }
+
+        private boolean scheduleWrite(NickBatch<V> batch) {
+            try {
+                mIrc.getScheduler().schedule(() -> {
+                    List<Request<?>> finished = new ArrayList<>(1);
+                    synchronized (RequestTracker.this) {
+                        write(finished, batch);
+                    }
+                    for (Request<?> request : finished) {
+                        request.complete();
+                    }
+                }, BATCH_DELAY, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (RejectedExecutionException e) {
+                Log.w(TAG, "Could not schedule " + mCommand + " batch: Scheduler shut down");
+                return false;
+            }
+        }
+
+        /**
+         * Get the bytes available for nicks, so that both the line and a reply listing all of them fit.
+         */
+        private int getAvailableLength() {
+            // ":server 303 nick :nicks"
+            String server = mSession.getServerHost();
+            String nick = mSession.getNick();
+            int replyLength = 1 + (server != null ? Utils.utf8Length(server) : mSession.getISupport().getHostLength())
+                    + 5 + (nick != null ? Utils.utf8Length(nick) : mSession.getISupport().getNickLength()) + 2;
+            return mSession.getISupport().getLineLength() - Math.max(mCommand.length() + 1, replyLength);
+        }
+
+        private void onReply(List<Request<?>> finished, String[] nicks, V[] values) {
+            if (mWritten.isEmpty()) {
+                return;
+            }
+            if (nicks.length == 0) {
+                // An empty reply matches any batch, it is only known to belong to the oldest once all are answered
+                mEmptyReplies++;
+                if (mEmptyReplies >= mWritten.size()) {
+                    while (!mWritten.isEmpty()) {
+                        finish(finished, mWritten.peek(), new CaseMappedMap<>(mSession.getCaseMapping()), null);
+                    }
+                    mEmptyReplies = 0;
+                }
+                return;
+            }
+            NickBatch<V> batch = null;
+            for (NickBatch<V> written : mWritten) {
+                if (written.matches(nicks)) {
+                    batch = written;
+                    break;
+                }
+            }
+            // Replies to lines not written by us do not match
+            if (batch == null) {
+                return;
+            }
+            // Replies arrive in order, so earlier batches were answered by the empty replies or not at all
+            while (mWritten.peek() != batch) {
+                NickBatch<V> earlier = mWritten.peek();
+                if (mEmptyReplies > 0) {
+                    mEmptyReplies--;
+                    finish(finished, earlier, new CaseMappedMap<>(mSession.getCaseMapping()), null);
+                } else {
+                    finish(finished, earlier, null, new IOException("No reply to " + earlier));
+                }
+            }
+            mEmptyReplies = 0;
+            CaseMappedMap<V> replies = new CaseMappedMap<>(mSession.getCaseMapping());
+            for (int i = 0; i < nicks.length; i++) {
+                replies.put(nicks[i], values[i]);
+            }
+            finish(finished, batch, replies, null);
+        }
+    }
+
+    private class NickBatch<V> extends Request<Map<String, V>> {
+        private final NickBatches<V> mBatches;
+        private final List<String> mNicks = new ArrayList<>();
+        private int mLength;
+
+        private NickBatch(NickBatches<V> batches) {
+            mBatches = batches;
+        }
+
+        private boolean matches(String[] nicks) {
+            CaseMapping caseMapping = mSession.getCaseMapping();
+            for (String nick : nicks) {
+                boolean requested = false;
+                for (String requestedNick : mNicks) {
+                    if (caseMapping.equals(nick, requestedNick)) {
+                        requested = true;
+                        break;
+                    }
+                }
+                if (!requested) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        protected void remove() {
+            if (mBatches.mCurrent == this) {
+                mBatches.mCurrent = null;
+            } else if (mBatches.mWritten.remove(this)) {
+                // Expired batches had no reply, so neither can the remaining batches have more empty replies
+                mBatches.mEmptyReplies = Math.min(mBatches.mEmptyReplies, mBatches.mWritten.size());
+            }
+            for (String nick : mNicks) {
+                if (mBatches.mIndex.get(nick) == this) {
+                    mBatches.mIndex.remove(nick);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return mBatches.mCommand + " " + String.join(" ", mNicks);
+        }
+    }
+
+    private class ChannelRequest extends Request<Channel> {
+        private final CaseMappedMap<ChannelRequest> mRequests;
+        private final String mName;
+        private Channel mChannel;
+
+        private ChannelRequest(CaseMappedMap<ChannelRequest> requests, String name) {
+            mRequests = requests;
+            mName = name;
+        }
+
+        private boolean matches(Channel channel) {
+            return mRequests.getCaseMapping().equals(mName, channel.getName());
+        }
+
+        @Override
+        protected void remove() {
+            if (mRequests.get(mName) == this) {
+                mRequests.remove(mName);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return (mRequests == mTopics ? Irc.COMMAND_TOPIC : Irc.COMMAND_NAMES) + " " + mName;
+        }
+    }
+}
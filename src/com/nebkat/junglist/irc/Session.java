@@ -20,27 +20,39 @@
 package com.nebkat.junglist.irc;
 
 import com.nebkat.junglist.irc.events.Event;
+import com.nebkat.junglist.irc.events.bbq.NetJoinEvent;
+import com.nebkat.junglist.irc.events.bbq.NetSplitEvent;
 import com.nebkat.junglist.irc.events.bbq.SessionConnectEvent;
 import com.nebkat.junglist.irc.events.bbq.SessionDisconnectEvent;
+import com.nebkat.junglist.irc.events.irc.AwayEvent;
 import com.nebkat.junglist.irc.events.irc.IRCEvent;
 import com.nebkat.junglist.irc.events.irc.JoinEvent;
+import com.nebkat.junglist.irc.events.irc.KickEvent;
+import com.nebkat.junglist.irc.events.irc.ModeChange;
+import com.nebkat.junglist.irc.events.irc.ModeEvent;
 import com.nebkat.junglist.irc.events.irc.NickEvent;
 import com.nebkat.junglist.irc.events.irc.PartEvent;
+import com.nebkat.junglist.irc.events.irc.PingEvent;
 import com.nebkat.junglist.irc.events.irc.QuitEvent;
 import com.nebkat.junglist.irc.events.irc.response.*;
 import com.nebkat.junglist.irc.parser.Parser;
 import com.nebkat.junglist.irc.utils.FloodProtectedOutputThread;
 import com.nebkat.junglist.irc.utils.InputThread;
+import com.nebkat.junglist.irc.utils.OutboundQueue;
 import com.nebkat.junglist.irc.utils.OutputThread;
+import com.nebkat.junglist.irc.utils.RateLimiter;
+import com.nebkat.junglist.irc.utils.SelectorConnection;
+import com.nebkat.junglist.irc.utils.Utils;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * Server Session
@@ -48,11 +60,10 @@ import java.util.stream.Collectors;
  * Manages per server session variables
  */
 public class Session implements InputThread.Callback, OutputThread.Callback {
-    public static final int MIN_FLOOD_DELAY = 250;
-    public static final int MAX_FLOOD_DELAY = 750;
-    public static final int MAX_LINES_PER_SECOND = 8;
-    public static final int DELAY_INCREASE_STEP = 200;
-    public static final int COOL_DOWN_PERIOD = 1000;
+    public static final int FLOOD_BURST = 8;
+    public static final int FLOOD_INTERVAL = 750;
+    public static final int SOURCE_CACHE_SIZE = 1024;
+    public static final int REQUEST_TIMEOUT = 30 * 1000;
 
     private String mServer;
     private String mServerHost;
@@ -60,6 +71,8 @@ public class Session implements InputThread.Callback, OutputThread.Callback {
 
     private Status mStatus;
     private String mNick;
+    // User and host of our own source as seen by others, once known
+    private volatile String mUserHost;
 
     private Irc mIrc;
 
@@ -71,40 +84,94 @@ public class Session implements InputThread.Callback, OutputThread.Callback {
     private OutputStream mOutputStream;
     private InputStream mInputStream;
 
-    private Map<String, Target> mTargets = new HashMap<>();
+    private SelectorConnection mSelectorConnection;
+
+    private final OutboundQueue mOutboundQueue = new OutboundQueue();
+
+    private volatile CaseMapping mCaseMapping = CaseMapping.RFC1459;
+
+    // Published snapshot, replaced under the session lock
+    private volatile PersistentCaseMappedMap<Target> mTargets = PersistentCaseMappedMap.empty(CaseMapping.RFC1459);
+
+    private final ISupport mISupport = new ISupport();
+
+    private final UserRegistry mUserRegistry = new UserRegistry(CaseMapping.RFC1459);
+
+    private final SourceCache mSourceCache = new SourceCache(SOURCE_CACHE_SIZE);
+
+    private final UserInfoCache mUserInfoCache = new UserInfoCache();
+
+    // Held while handling a line read, so tasks run from other threads never interleave with it
+    private final Object mReadLock = new Object();
+
+    private final NetSplitTracker mNetSplitTracker;
+    private volatile NetSplitMode mNetSplitMode = NetSplitMode.ADDITIONAL;
+
+    private final RequestTracker mRequestTracker;
+    private volatile long mRequestTimeout = REQUEST_TIMEOUT;
+
+    private final CapabilityNegotiator mCapabilityNegotiator;
 
     public enum Status {
         CONNECTED, DISCONNECTED
     }
 
+    /**
+     * Handling of netsplits, where many users quit or rejoin at once.
+     */
+    public enum NetSplitMode {
+        /**
+         * Netsplits are not detected.
+         */
+        DISABLED,
+        /**
+         * A {@link NetSplitEvent} or {@link NetJoinEvent} is delivered in addition to each {@link QuitEvent} or
+         * {@link JoinEvent}.
+         */
+        ADDITIONAL,
+        /**
+         * Only a {@link NetSplitEvent} or {@link NetJoinEvent} is delivered instead of each {@link QuitEvent} or
+         * {@link JoinEvent}.
+         */
+        AGGREGATED
+    }
+
     protected Session(Irc irc) {
         mStatus = Status.DISCONNECTED;
 
         mIrc = irc;
+        mNetSplitTracker = new NetSplitTracker(irc, this);
+        mRequestTracker = new RequestTracker(irc, this);
+        mCapabilityNegotiator = new CapabilityNegotiator(irc, this);
     }
 
     public void onEvent(Event event) {
-        if (event instanceof ServerInfoEvent) {
+        boolean deliver = true;
+        // Netsplit batches finished early by this event, delivered before it
+        List<Event> flushed = null;
+        if (event instanceof PingEvent) {
+            // Answered here rather than by a handler, so a slow or dropped asynchronous dispatch never times us out
+            Irc.pong(this, ((PingEvent) event).getPingSource());
+        } else if (event instanceof ServerInfoEvent) {
             ServerInfoEvent serverInfoEvent = (ServerInfoEvent) event;
             mNick = serverInfoEvent.getNick();
             mServerHost = serverInfoEvent.getServerHost();
             mServerVersion = serverInfoEvent.getServerVersion();
+        } else if (event instanceof ISupportEvent) {
+            mISupport.apply(((ISupportEvent) event).getTokens());
+            setCaseMapping(mISupport.getCaseMapping());
+            if (mSelectorConnection != null) {
+                mSelectorConnection.setMaxLineLength(mISupport.getLineLength());
+            } else if (mInputThread != null) {
+                mInputThread.setMaxLineLength(mISupport.getLineLength());
+            }
         } else if (event instanceof NickEvent) {
             NickEvent nickEvent = (NickEvent) event;
             String originalNick = nickEvent.getSource().getNick();
-            if (originalNick.equals(mNick)) {
+            if (mCaseMapping.equals(originalNick, mNick)) {
                 mNick = nickEvent.getNick();
             }
-            for (Channel channel : getChannels().values()) {
-                Iterator<User> iterator = channel.getUsersModifiable().values().iterator();
-                while (iterator.hasNext()) {
-                    User user = iterator.next();
-                    if (user.getNick().equals(originalNick)) {
-                        iterator.remove();
-                        user.setNick(nickEvent.getNick());
-                    }
-                }
-            }
+            mUserRegistry.rename(originalNick, nickEvent.getNick());
         } else if (event instanceof ResponseChannelEvent) {
             if (event instanceof ResponseTopicNoneEvent) {
                 ((ResponseChannelEvent) event).getChannel().setTopic(null);
@@ -118,48 +185,118 @@ public class Session implements InputThread.Callback, OutputThread.Callback {
             }
         } else if (event instanceof JoinEvent) {
             JoinEvent joinEvent = (JoinEvent) event;
-            Channel channel = joinEvent.getChannel();
-            channel.getUsersModifiable().put(joinEvent.getSource().getNick(), new User(joinEvent.getSource().getNick()));
+            Source source = joinEvent.getSource();
+            if (mCaseMapping.equals(source.getNick(), mNick) && source.getUser() != null && source.getHost() != null) {
+                mUserHost = source.getUser() + "@" + source.getHost();
+            }
+            Membership membership = mUserRegistry.join(source.getNick(), joinEvent.getChannel());
+            if (joinEvent.isExtended()) {
+                membership.getUser().setAccount(joinEvent.getAccount());
+            }
+            NetSplitMode netSplitMode = mNetSplitMode;
+            if (netSplitMode != NetSplitMode.DISABLED) {
+                flushed = new ArrayList<>(1);
+                if (mNetSplitTracker.onJoin(source.getNick(), joinEvent.getChannel(), System.currentTimeMillis(), flushed)) {
+                    deliver = netSplitMode != NetSplitMode.AGGREGATED;
+                }
+            }
         } else if (event instanceof PartEvent) {
             PartEvent partEvent = (PartEvent) event;
             Channel channel = partEvent.getChannel();
-            channel.getUsersModifiable().remove(partEvent.getSource().getNick());
-            if (partEvent.getSource().getNick().equals(getNick())) {
-                mTargets.remove(channel.getName());
+            if (mCaseMapping.equals(partEvent.getSource().getNick(), getNick())) {
+                mUserRegistry.partAll(channel);
+                removeTarget(channel.getName());
+            } else {
+                mUserRegistry.part(partEvent.getSource().getNick(), channel);
+            }
+        } else if (event instanceof KickEvent) {
+            KickEvent kickEvent = (KickEvent) event;
+            Channel channel = kickEvent.getChannel();
+            if (mCaseMapping.equals(kickEvent.getNick(), getNick())) {
+                mUserRegistry.partAll(channel);
+                removeTarget(channel.getName());
+            } else {
+                mUserRegistry.part(kickEvent.getNick(), channel);
             }
         } else if (event instanceof QuitEvent) {
             QuitEvent quitEvent = (QuitEvent) event;
-            for (Target target : mTargets.values()) {
-                if (target instanceof Channel) {
-                    ((Channel) target).getUsersModifiable().remove(quitEvent.getSource().getNick());
-                }
+            String nick = quitEvent.getSource().getNick();
+            NetSplitMode netSplitMode = mNetSplitMode;
+            String[] servers = netSplitMode != NetSplitMode.DISABLED ? NetSplitTracker.parseServers(quitEvent.getMessage()) : null;
+            User user = mUserRegistry.get(nick);
+            if (servers != null && user != null && !mCaseMapping.equals(nick, getNick())) {
+                // Timed by our clock, event times may be the server time of replayed lines
+                flushed = new ArrayList<>(1);
+                mNetSplitTracker.onSplit(servers, nick, user.getChannels(), System.currentTimeMillis(), flushed);
+                deliver = netSplitMode != NetSplitMode.AGGREGATED;
             }
-            if (quitEvent.getSource().getNick().equals(getNick())) {
+            mUserRegistry.quit(nick);
+            if (mCaseMapping.equals(nick, getNick())) {
                 mIrc.disconnect(this);
             }
+        } else if (event instanceof AwayEvent) {
+            AwayEvent awayEvent = (AwayEvent) event;
+            User user = mUserRegistry.get(awayEvent.getUser().getNick());
+            if (user != null) {
+                user.setAwayMessage(awayEvent.getMessage());
+            }
         } else if (event instanceof NamesListEvent) {
             NamesListEvent namesListEvent = (NamesListEvent) event;
-            Map<String, User> users = namesListEvent.getChannel().getUsersModifiable();
-            String[] names = namesListEvent.getNames();
-            for (String name : names) {
-                if (name.startsWith("@")) {
-                    // TODO operator mode
-                    name = name.substring(1);
-                } else if (name.startsWith("+")) {
-                    // TODO voice mode
-                    name = name.substring(1);
+            // Members of channels we are not in are only collected for the request, no PART would remove them
+            if (isJoined(namesListEvent.getChannel())) {
+                addNames(namesListEvent.getChannel(), namesListEvent.getNames(), true);
+            }
+        } else if (event instanceof ModeEvent) {
+            ModeEvent modeEvent = (ModeEvent) event;
+            Channel channel = modeEvent.getChannel();
+            if (channel != null) {
+                for (ModeChange change : modeEvent.getChanges()) {
+                    if (change.getParameter() == null || mISupport.getModeType(change.getMode()) != ISupport.ModeType.PREFIX) {
+                        continue;
+                    }
+                    Membership membership = channel.getMembership(change.getParameter());
+                    if (membership != null) {
+                        membership.setMode(change.getMode(), change.isAdding());
+                    }
                 }
-                users.putIfAbsent(name, new User(name));
             }
         }
-        mIrc.getEventHandlerManager().callEvent(event);
+        mCapabilityNegotiator.onEvent(event);
+        mUserInfoCache.onEvent(event);
+        mRequestTracker.onEvent(event);
+        if (flushed != null) {
+            for (Event flushedEvent : flushed) {
+                mIrc.getEventHandlerManager().callEvent(flushedEvent);
+            }
+        }
+        if (deliver) {
+            mIrc.getEventHandlerManager().callEvent(event);
+        }
     }
 
     @Override
     public void onLineRead(String line) {
-        IRCEvent event = Parser.parse(this, line);
-        if (event != null) {
-            onEvent(event);
+        synchronized (mReadLock) {
+            IRCEvent event = Parser.parse(this, line);
+            if (event != null) {
+                onEvent(event);
+            }
+        }
+    }
+
+    /**
+     * Run a task in order with the lines read from the server, on the selector thread or holding the read lock.
+     *
+     * @param task Task to run.
+     */
+    void execute(Runnable task) {
+        SelectorConnection selectorConnection = mSelectorConnection;
+        if (selectorConnection != null) {
+            selectorConnection.execute(task);
+        } else {
+            synchronized (mReadLock) {
+                task.run();
+            }
         }
     }
 
@@ -174,18 +311,28 @@ public class Session implements InputThread.Callback, OutputThread.Callback {
         }
 
         mServer = server;
-        mSocket = new Socket(server, port);
+        Supplier<RateLimiter> rateLimiterFactory = mIrc.getRateLimiterFactory();
+        RateLimiter rateLimiter = rateLimiterFactory != null ? rateLimiterFactory.get() : null;
+
+        if (mIrc.getTransport() == Irc.Transport.SELECTOR) {
+            mSelectorConnection = mIrc.getSelectorPool().open(server, port, this, rateLimiter, mOutboundQueue);
+        } else {
+            mSocket = new Socket(server, port);
 
-        mInputStream = mSocket.getInputStream();
-        mOutputStream = mSocket.getOutputStream();
+            mInputStream = mSocket.getInputStream();
+            mOutputStream = mSocket.getOutputStream();
 
-        mInputThread = new InputThread(mInputStream, this);
-        mOutputThread = new FloodProtectedOutputThread(mOutputStream, this, MIN_FLOOD_DELAY, MAX_FLOOD_DELAY, MAX_LINES_PER_SECOND, DELAY_INCREASE_STEP, COOL_DOWN_PERIOD);
+            mInputThread = new InputThread(mInputStream, this);
+            mOutputThread = rateLimiter != null
+                    ? new FloodProtectedOutputThread(mOutputStream, this, rateLimiter, mOutboundQueue)
+                    : new OutputThread(mOutputStream, this, OutputThread.DEFAULT_ENCODING, mOutboundQueue);
 
-        mInputThread.start();
-        mOutputThread.start();
+            mInputThread.start(mIrc.getThreadFactory());
+            mOutputThread.start(mIrc.getThreadFactory());
+        }
 
         mStatus = Status.CONNECTED;
+        mCapabilityNegotiator.start();
 
         mIrc.getEventHandlerManager().callEvent(new SessionConnectEvent(System.currentTimeMillis(), this));
     }
@@ -196,28 +343,38 @@ public class Session implements InputThread.Callback, OutputThread.Callback {
         }
 
         mStatus = Status.DISCONNECTED;
+        mNetSplitTracker.clear();
+        mRequestTracker.clear();
+        mUserInfoCache.clear();
+        mCapabilityNegotiator.clear();
+        mOutboundQueue.clear();
+
+        if (mSelectorConnection != null) {
+            mSelectorConnection.close();
+            mSelectorConnection = null;
+        } else {
+            mInputThread.interrupt();
+            mOutputThread.interrupt();
+            mInputThread = null;
+            mOutputThread = null;
+
+            try {
+                mInputStream.close();
+                mOutputStream.close();
+            } catch (IOException e) {
+                // Ignore
+            } finally {
+                mInputStream = null;
+                mOutputStream = null;
+            }
 
-        mInputThread.interrupt();
-        mOutputThread.interrupt();
-        mInputThread = null;
-        mOutputThread = null;
-
-        try {
-            mInputStream.close();
-            mOutputStream.close();
-        } catch (IOException e) {
-            // Ignore
-        } finally {
-            mInputStream = null;
-            mOutputStream = null;
-        }
-
-        try {
-            mSocket.close();
-        } catch (IOException e) {
-            // Ignore
-        } finally {
-            mSocket = null;
+            try {
+                mSocket.close();
+            } catch (IOException e) {
+                // Ignore
+            } finally {
+                mSocket = null;
+            }
         }
 
         mIrc.getEventHandlerManager().callEvent(new SessionDisconnectEvent(System.currentTimeMillis(), this));
@@ -243,35 +400,286 @@ public class Session implements InputThread.Callback, OutputThread.Callback {
         return mNick;
     }
 
-    protected void write(String line) {
-        if (mStatus != Status.CONNECTED) {
+    /**
+     * Get the length in bytes of the <code>nick!user@host</code> prefix servers add to our messages when relaying
+     * them. Until our user and host have been seen in a join, the longest ones allowed by the server are assumed.
+     *
+     * @return Prefix length, excluding the leading ':'.
+     */
+    public int getPrefixLength() {
+        String nick = mNick;
+        String userHost = mUserHost;
+        int nickLength = nick != null ? Utils.utf8Length(nick) : mISupport.getNickLength();
+        int userHostLength = userHost != null ? Utils.utf8Length(userHost) : mISupport.getUserLength() + 1 + mISupport.getHostLength();
+        return nickLength + 1 + userHostLength;
+    }
+
+    /**
+     * Get the features and limits advertised by the server.
+     *
+     * @return Server features.
+     */
+    public ISupport getISupport() {
+        return mISupport;
+    }
+
+    /**
+     * Get the case mapping used to compare nicks and channel names.
+     *
+     * @return Case mapping.
+     */
+    public CaseMapping getCaseMapping() {
+        return mCaseMapping;
+    }
+
+    /**
+     * Set the case mapping used to compare nicks and channel names, normally advertised by the server.
+     *
+     * @param caseMapping Case mapping.
+     */
+    public synchronized void setCaseMapping(CaseMapping caseMapping) {
+        if (caseMapping == mCaseMapping) {
             return;
         }
-        mOutputThread.write(line);
+        mCaseMapping = caseMapping;
+        mTargets = mTargets.withCaseMapping(caseMapping);
+        mUserRegistry.setCaseMapping(caseMapping);
+        mRequestTracker.setCaseMapping(caseMapping);
+        mUserInfoCache.setCaseMapping(caseMapping);
+        mNetSplitTracker.setCaseMapping(caseMapping);
+        // Channel members are only written under the registry lock
+        synchronized (mUserRegistry) {
+            for (Target target : mTargets.values()) {
+                if (target instanceof Channel) {
+                    ((Channel) target).setCaseMapping(caseMapping);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set how netsplits are reported.
+     *
+     * @param netSplitMode Netsplit handling.
+     */
+    public void setNetSplitMode(NetSplitMode netSplitMode) {
+        mNetSplitMode = netSplitMode;
+    }
+
+    /**
+     * Get how netsplits are reported.
+     *
+     * @return Netsplit handling.
+     */
+    public NetSplitMode getNetSplitMode() {
+        return mNetSplitMode;
+    }
+
+    /**
+     * Set the time to wait for the reply to a request such as {@link Irc#whois(Session, String)} before failing it.
+     *
+     * @param requestTimeout Timeout in ms.
+     */
+    public void setRequestTimeout(long requestTimeout) {
+        mRequestTimeout = requestTimeout;
+    }
+
+    /**
+     * Get the time to wait for the reply to a request before failing it.
+     *
+     * @return Timeout in ms.
+     */
+    public long getRequestTimeout() {
+        return mRequestTimeout;
+    }
+
+    /**
+     * Get the amount of requests waiting for a reply from the server.
+     *
+     * @return Pending requests.
+     */
+    public int getPendingRequestCount() {
+        return mRequestTracker.getPendingCount();
+    }
+
+    RequestTracker getRequestTracker() {
+        return mRequestTracker;
+    }
+
+    /**
+     * Check whether an IRCv3 capability was negotiated with the server.
+     *
+     * @param name Capability name, for example {@link Capability#MULTI_PREFIX}.
+     * @return True if enabled.
+     */
+    public boolean hasCapability(String name) {
+        return mCapabilityNegotiator.isEnabled(name);
+    }
+
+    /**
+     * Get the IRCv3 capabilities negotiated with the server.
+     *
+     * @return Immutable set of capability names.
+     */
+    public Set<String> getCapabilities() {
+        return mCapabilityNegotiator.getEnabled();
+    }
+
+    /**
+     * Get the IRCv3 capabilities offered by the server.
+     *
+     * @return Immutable map of capability names to their values, empty values if none.
+     */
+    public Map<String, String> getServerCapabilities() {
+        return mCapabilityNegotiator.getOffered();
+    }
+
+    /**
+     * Get the registry of users in known channels.
+     *
+     * @return User registry.
+     */
+    public UserRegistry getUserRegistry() {
+        return mUserRegistry;
+    }
+
+    /**
+     * Get a user in any known channel.
+     *
+     * @param nick User nick.
+     * @return User, or null if not in any known channel.
+     */
+    public User getUser(String nick) {
+        return mUserRegistry.get(nick);
+    }
+
+    /**
+     * Get the cache of sources seen on this session.
+     *
+     * @return Source cache.
+     */
+    public SourceCache getSourceCache() {
+        return mSourceCache;
+    }
+
+    /**
+     * Get the cache of user information used to answer requests such as {@link Irc#whois(Session, String)} locally.
+     *
+     * @return User info cache.
+     */
+    public UserInfoCache getUserInfoCache() {
+        return mUserInfoCache;
+    }
+
+    /**
+     * Get the queue of lines waiting to be written to the server, for example to change its limits.
+     *
+     * @return Outbound queue.
+     */
+    public OutboundQueue getOutboundQueue() {
+        return mOutboundQueue;
+    }
+
+    /**
+     * Get the average amount of lines written to the server with each flush.
+     *
+     * @return Lines per flush, or 0 if not connected or nothing has been written.
+     */
+    public double getLinesPerFlush() {
+        SelectorConnection selectorConnection = mSelectorConnection;
+        if (selectorConnection != null) {
+            return selectorConnection.getLinesPerFlush();
+        }
+        OutputThread outputThread = mOutputThread;
+        return outputThread != null ? outputThread.getLinesPerFlush() : 0;
+    }
+
+    protected boolean write(String line) {
+        if (mStatus != Status.CONNECTED) {
+            return false;
+        }
+        if (mSelectorConnection != null) {
+            return mSelectorConnection.write(line);
+        } else {
+            return mOutputThread.write(line);
+        }
     }
 
     public Channel getChannel(String channel) {
-        return mTargets.get(channel) instanceof Channel ? (Channel) mTargets.get(channel) : null;
+        Target target = mTargets.get(channel);
+        return target instanceof Channel ? (Channel) target : null;
+    }
+
+    /**
+     * Check whether we are in a channel, rather than only knowing it from replies or messages.
+     *
+     * @param channel Channel.
+     * @return True if joined.
+     */
+    public boolean isJoined(Channel channel) {
+        String nick = mNick;
+        return nick != null && mTargets.get(channel.getName()) == channel && channel.getMembership(nick) != null;
     }
 
-    private Map<String, Channel> getChannels() {
-        return mTargets.values().stream()
-                .filter((target) -> target instanceof Channel)
-                .collect(Collectors.toMap(Target::getName, (target) -> (Channel) target));
+    /**
+     * Add the users listed in a <code>NAMES</code> reply to a channel.
+     *
+     * @param channel Channel.
+     * @param names Nicks with their membership prefixes.
+     * @param registered True to register the users, false for channels not tracked by the session.
+     */
+    void addNames(Channel channel, String[] names, boolean registered) {
+        String prefixes = mISupport.getPrefixes();
+        for (String name : names) {
+            // Servers supporting multi-prefix send all prefixes, others only the highest
+            int modes = 0;
+            int start = 0;
+            int index;
+            while (start < name.length() && (index = prefixes.indexOf(name.charAt(start))) != -1) {
+                modes |= 1 << index;
+                start++;
+            }
+            if (start < name.length()) {
+                String nick = name.substring(start);
+                Membership membership;
+                if (registered) {
+                    membership = mUserRegistry.join(nick, channel);
+                } else {
+                    membership = channel.getMembership(nick);
+                    if (membership == null) {
+                        membership = new Membership(channel, new User(nick));
+                        channel.putMember(nick, membership);
+                    }
+                }
+                if (start == 1) {
+                    // Only the highest mode is known, keep lower ranked modes already tracked
+                    modes |= membership.getModes() & -(modes << 1);
+                }
+                membership.setModes(modes);
+            }
+        }
     }
 
     public Target getOrInitiateTarget(String target) {
-        Target t;
-        if (mTargets.containsKey(target)) {
-            return mTargets.get(target);
-        } else {
-            if (target.startsWith("#") || target.startsWith("&")) {
-                t = new Channel(this, target);
-            } else {
-                t = new Target(this, target);
+        Target t = mTargets.get(target);
+        if (t != null) {
+            return t;
+        }
+        synchronized (this) {
+            t = mTargets.get(target);
+            if (t == null) {
+                if (mISupport.isChannel(target)) {
+                    t = new Channel(this, target);
+                } else {
+                    t = new Target(this, target);
+                }
+                mTargets = mTargets.with(target, t);
             }
-            mTargets.put(target, t);
             return t;
         }
     }
+
+    private synchronized void removeTarget(String target) {
+        mTargets = mTargets.without(target);
+    }
 }
@@ -23,30 +23,19 @@ package com.nebkat.junglist.irc;
  * IRC source (nick, user, host).
  */
 public class Source {
-    private String mRaw;
+    private final String mRaw;
     private String mNick;
     private String mUser;
     private String mHost;
+    private volatile boolean mParsed;
 
     /**
-     * Create a new Source from a raw source.
+     * Create a new Source from a raw source. The raw source is only split into its parts on first access.
      *
      * @param raw Raw source.
      */
     public Source(String raw) {
         mRaw = raw;
-        if (!mRaw.contains("@")) {
-            mHost = mRaw;
-        } else {
-            if (mRaw.contains("!")) {
-                mNick = mRaw.substring(0, mRaw.indexOf("!"));
-                mUser = mRaw.substring(mRaw.indexOf("!") + 1, mRaw.indexOf("@"));
-                mHost = mRaw.substring(mRaw.indexOf("@") + 1);
-            } else {
-                mNick = mRaw.substring(0, mRaw.indexOf("@"));
-                mHost = mRaw.substring(mRaw.indexOf("@") + 1);
-            }
-        }
     }
 
     /**
@@ -61,6 +50,27 @@ public class Source {
         mUser = user;
         mHost = host;
         mRaw = nick + "!" + user + "@" + host;
+        mParsed = true;
+    }
+
+    private void parse() {
+        if (mParsed) {
+            return;
+        }
+        int at = mRaw.indexOf('@');
+        if (at == -1) {
+            mHost = mRaw;
+        } else {
+            int bang = mRaw.indexOf('!');
+            if (bang != -1 && bang < at) {
+                mNick = mRaw.substring(0, bang);
+                mUser = mRaw.substring(bang + 1, at);
+            } else {
+                mNick = mRaw.substring(0, at);
+            }
+            mHost = mRaw.substring(at + 1);
+        }
+        mParsed = true;
     }
 
     /**
@@ -78,6 +88,7 @@ public class Source {
      * @return Source nick.
      */
     public String getNick() {
+        parse();
         return mNick;
     }
 
@@ -87,6 +98,7 @@ public class Source {
      * @return Source user.
      */
     public String getUser() {
+        parse();
         return mUser;
     }
 
@@ -96,23 +108,40 @@ public class Source {
      * @return Source host.
      */
     public String getHost() {
+        parse();
         return mHost;
     }
 
+    /**
+     * Check if the source matches a wildcard mask.
+     *
+     * @param mask Wildcard mask.
+     * @return True if the raw source matches.
+     * @see Mask
+     */
     public boolean match(String mask) {
-        return match(mRaw, mask);
+        return Mask.compile(mask).matches(mRaw);
     }
 
+    /**
+     * Check if the source matches a compiled mask.
+     *
+     * @param mask Compiled mask.
+     * @return True if the raw source matches.
+     */
+    public boolean match(Mask mask) {
+        return mask.matches(mRaw);
+    }
+
+    /**
+     * Check if a host matches a wildcard mask.
+     *
+     * @param host Raw source.
+     * @param mask Wildcard mask.
+     * @return True if the host matches.
+     * @see Mask
+     */
     public static boolean match(String host, String mask) {
-        String[] sections = mask.split("\\*");
-        String text = host;
-        for (String section : sections) {
-            int index = text.indexOf(section);
-            if (index == -1) {
-                return false;
-            }
-            text = text.substring(index + section.length());
-        }
-        return true;
+        return Mask.compile(mask).matches(host);
     }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc;
+
+/**
+ * Bounded cache returning the same {@link Source} for repeated raw sources
+ *
+ * Entries are looked up directly from a region of a line, so a cache hit does not allocate. Each raw source maps to a
+ * single slot, replacing the previous entry on collision.
+ */
+public class SourceCache {
+    private final Source[] mEntries;
+    private final int mMask;
+
+    /**
+     * Create a new cache.
+     *
+     * @param size Maximum amount of cached sources, rounded up to a power of two.
+     */
+    public SourceCache(int size) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        mEntries = new Source[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Get the source for a raw source.
+     *
+     * @param raw Raw source.
+     * @return Cached or new source.
+     */
+    public Source get(String raw) {
+        return get(raw, 0, raw.length());
+    }
+
+    /**
+     * Get the source for a region of a line.
+     *
+     * @param line Line containing the raw source.
+     * @param start Start of the raw source.
+     * @param end End of the raw source.
+     * @return Cached or new source.
+     */
+    public Source get(String line, int start, int end) {
+        int length = end - start;
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + line.charAt(i);
+        }
+        int index = (hash ^ (hash >>> 16)) & mMask;
+
+        Source source = mEntries[index];
+        if (source != null) {
+            String raw = source.getRaw();
+            if (raw.length() == length && raw.regionMatches(0, line, start, length)) {
+                return source;
+            }
+        }
+        source = new Source(start == 0 && end == line.length() ? line : line.substring(start, end));
+        mEntries[index] = source;
+        return source;
+    }
+
+    /**
+     * Remove all cached sources.
+     */
+    public void clear() {
+        for (int i = 0; i < mEntries.length; i++) {
+            mEntries[i] = null;
+        }
+    }
+}
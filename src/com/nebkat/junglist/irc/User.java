@@ -19,12 +19,20 @@
 
 package com.nebkat.junglist.irc;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * IRC user containing a {@link Source} and user modes.
  */
 public class User {
-    private String mNick;
+    private volatile String mNick;
     private Source mSource;
+    // Replaced on every change, users are only in a handful of channels
+    private volatile Set<Channel> mChannels = Collections.emptySet();
+    private volatile String mAccount;
+    private volatile String mAwayMessage;
 
     /**
      * Create a new user from a nick.
@@ -47,4 +55,70 @@ public class User {
     protected void setNick(String nick) {
         mNick = nick;
     }
+
+    /**
+     * Get the account the user is logged in to, as sent by servers with the <code>extended-join</code> capability.
+     *
+     * @return Account name, or null if not logged in or not known.
+     */
+    public String getAccount() {
+        return mAccount;
+    }
+
+    protected void setAccount(String account) {
+        mAccount = account;
+    }
+
+    /**
+     * Check whether the user is away, as sent by servers with the <code>away-notify</code> capability.
+     *
+     * @return True if the user is known to be away.
+     */
+    public boolean isAway() {
+        return mAwayMessage != null;
+    }
+
+    /**
+     * Get the away message of the user.
+     *
+     * @return Away message, or null if not away or not known.
+     */
+    public String getAwayMessage() {
+        return mAwayMessage;
+    }
+
+    protected void setAwayMessage(String awayMessage) {
+        mAwayMessage = awayMessage;
+    }
+
+    /**
+     * Get the known channels the user is in.
+     *
+     * @return Immutable snapshot of channels.
+     */
+    public Set<Channel> getChannels() {
+        return mChannels;
+    }
+
+    protected void addChannel(Channel channel) {
+        Set<Channel> channels = mChannels;
+        if (!channels.contains(channel)) {
+            Set<Channel> added = new HashSet<>(channels);
+            added.add(channel);
+            mChannels = Collections.unmodifiableSet(added);
+        }
+    }
+
+    protected void removeChannel(Channel channel) {
+        Set<Channel> channels = mChannels;
+        if (channels.contains(channel)) {
+            Set<Channel> removed = new HashSet<>(channels);
+            removed.remove(channel);
+            mChannels = removed.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(removed);
+        }
+    }
+
+    protected void clearChannels() {
+        mChannels = Collections.emptySet();
+    }
 }
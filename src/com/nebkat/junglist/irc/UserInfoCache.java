@@ -0,0 +1,394 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+import com.nebkat.junglist.irc.events.Event;
+import com.nebkat.junglist.irc.events.irc.IRCEvent;
+import com.nebkat.junglist.irc.events.irc.JoinEvent;
+import com.nebkat.junglist.irc.events.irc.NickEvent;
+import com.nebkat.junglist.irc.events.irc.QuitEvent;
+import com.nebkat.junglist.irc.events.irc.response.UserHostEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisAccountEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisUserEvent;
+
+/**
+ * Bounded cache of what is known about users of a session, so repeated lookups are answered without a request
+ *
+ * Sources are learned from <code>USERHOST</code> and <code>WHOIS</code> replies and from every line a user sends,
+ * accounts from <code>WHOIS</code> replies and extended joins. Entries expire once not updated for the time to live,
+ * and the least recently used entries are evicted once the cache is full. A nick change or quit removes the entry of
+ * the user.
+ */
+public class UserInfoCache {
+    public static final int DEFAULT_MAX_SIZE = 4096;
+    public static final long DEFAULT_TIME_TO_LIVE = 10 * 60 * 1000;
+
+    private CaseMappedMap<Entry> mEntries = new CaseMappedMap<>(CaseMapping.RFC1459);
+    // Most recently used entry, linked to the least recently used
+    private Entry mHead;
+    private Entry mTail;
+
+    private int mMaxSize = DEFAULT_MAX_SIZE;
+    private long mTimeToLive = DEFAULT_TIME_TO_LIVE;
+
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * Set the maximum amount of users cached.
+     *
+     * @param maxSize Maximum size, at least 1.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be at least 1");
+        }
+        mMaxSize = maxSize;
+        while (mEntries.size() > mMaxSize) {
+            remove(mTail);
+        }
+    }
+
+    /**
+     * Get the maximum amount of users cached.
+     *
+     * @return Maximum size.
+     */
+    public synchronized int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Set the time after which information not updated is no longer used.
+     *
+     * @param timeToLive Time to live in ms, 0 to disable the cache.
+     */
+    public synchronized void setTimeToLive(long timeToLive) {
+        mTimeToLive = timeToLive;
+    }
+
+    /**
+     * Get the time after which information not updated is no longer used.
+     *
+     * @return Time to live in ms.
+     */
+    public synchronized long getTimeToLive() {
+        return mTimeToLive;
+    }
+
+    /**
+     * Get the source of a user.
+     *
+     * @param nick User nick.
+     * @return Source, or null if not known.
+     */
+    public synchronized Source getSource(String nick) {
+        Entry entry = get(nick);
+        return count(entry != null && isFresh(entry.mSourceTime) ? entry.mSource : null);
+    }
+
+    /**
+     * Get the account a user is logged in to.
+     *
+     * @param nick User nick.
+     * @return Account name, or null if not logged in or not known.
+     *
+     * @see #isAccountKnown(String)
+     */
+    public synchronized String getAccount(String nick) {
+        Entry entry = get(nick);
+        return count(entry != null && isFresh(entry.mAccountTime)) ? entry.mAccount : null;
+    }
+
+    /**
+     * Check whether it is known which account a user is logged in to, if any.
+     *
+     * @param nick User nick.
+     * @return True if {@link #getAccount(String)} returns the account, or null because the user is not logged in.
+     */
+    public synchronized boolean isAccountKnown(String nick) {
+        Entry entry = get(nick);
+        return count(entry != null && isFresh(entry.mAccountTime));
+    }
+
+    /**
+     * Get the reply to the last <code>WHOIS</code> request for a user.
+     *
+     * @param nick User nick.
+     * @return Whois info, or null if not known.
+     */
+    public synchronized WhoisInfo getWhois(String nick) {
+        Entry entry = get(nick);
+        return count(entry != null && isFresh(entry.mWhoisTime) ? entry.mWhois : null);
+    }
+
+    /**
+     * Get the amount of lookups answered from the cache.
+     *
+     * @return Hits.
+     */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * Get the amount of lookups not answered from the cache.
+     *
+     * @return Misses.
+     */
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Get the amount of users cached, including expired ones not yet removed.
+     *
+     * @return Cached users.
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Store the source of a user.
+     *
+     * @param source Source with nick, user and host.
+     */
+    public synchronized void putSource(Source source) {
+        Entry entry = getOrCreate(source.getNick());
+        entry.mSource = source;
+        entry.mSourceTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Store the account a user is logged in to.
+     *
+     * @param nick User nick.
+     * @param account Account name, or null if not logged in.
+     */
+    public synchronized void putAccount(String nick, String account) {
+        Entry entry = getOrCreate(nick);
+        entry.mAccount = account;
+        entry.mAccountTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Store the reply to a <code>WHOIS</code> request.
+     *
+     * @param whois Whois info.
+     */
+    public synchronized void putWhois(WhoisInfo whois) {
+        long time = System.currentTimeMillis();
+        Entry entry = getOrCreate(whois.getNick());
+        entry.mWhois = whois;
+        entry.mWhoisTime = time;
+        Source source = whois.getSource();
+        if (source != null) {
+            entry.mSource = source;
+            entry.mSourceTime = time;
+        }
+        // A complete reply without an account means the user is not logged in
+        entry.mAccount = whois.getAccount();
+        entry.mAccountTime = time;
+    }
+
+    /**
+     * Remove everything known about a user.
+     *
+     * @param nick User nick.
+     */
+    public synchronized void remove(String nick) {
+        Entry entry = mEntries.get(nick);
+        if (entry != null) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * Remove all users.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mHead = null;
+        mTail = null;
+    }
+
+    /**
+     * Update the cache from an event received from the server.
+     *
+     * @param event Event.
+     */
+    void onEvent(Event event) {
+        if (event instanceof NickEvent) {
+            NickEvent nickEvent = (NickEvent) event;
+            Source source = nickEvent.getSource();
+            synchronized (this) {
+                remove(source.getNick());
+                if (source.getUser() != null) {
+                    putSource(new Source(nickEvent.getNick(), source.getUser(), source.getHost()));
+                }
+            }
+        } else if (event instanceof QuitEvent) {
+            remove(((QuitEvent) event).getSource().getNick());
+        } else if (event instanceof UserHostEvent) {
+            for (Source source : ((UserHostEvent) event).getHosts()) {
+                putSource(source);
+            }
+        } else if (event instanceof WhoisUserEvent) {
+            WhoisUserEvent whoisUserEvent = (WhoisUserEvent) event;
+            putSource(new Source(whoisUserEvent.getNick(), whoisUserEvent.getUser(), whoisUserEvent.getHost()));
+        } else if (event instanceof WhoisAccountEvent) {
+            WhoisAccountEvent whoisAccountEvent = (WhoisAccountEvent) event;
+            putAccount(whoisAccountEvent.getNick(), whoisAccountEvent.getAccount());
+        } else if (event instanceof JoinEvent && ((JoinEvent) event).isExtended()) {
+            JoinEvent joinEvent = (JoinEvent) event;
+            Source source = joinEvent.getSource();
+            putAccount(source.getNick(), joinEvent.getAccount());
+            if (source.getUser() != null) {
+                observe(source);
+            }
+        } else if (event instanceof IRCEvent) {
+            Source source = ((IRCEvent) event).getSource();
+            // Servers have no nick or user
+            if (source != null && source.getUser() != null && source.getNick() != null) {
+                observe(source);
+            }
+        }
+    }
+
+    /**
+     * Set the case mapping nicks are compared with, removing all users.
+     *
+     * @param caseMapping Case mapping.
+     */
+    synchronized void setCaseMapping(CaseMapping caseMapping) {
+        mEntries = new CaseMappedMap<>(caseMapping);
+        mHead = null;
+        mTail = null;
+    }
+
+    private synchronized void observe(Source source) {
+        Entry entry = mEntries.get(source.getNick());
+        if (entry != null && entry.mSource == source) {
+            // Cached sources are shared, so an active user only needs refreshing
+            entry.mSourceTime = System.currentTimeMillis();
+            moveToHead(entry);
+        } else {
+            putSource(source);
+        }
+    }
+
+    private <T> T count(T value) {
+        count(value != null);
+        return value;
+    }
+
+    private boolean count(boolean hit) {
+        if (hit) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return hit;
+    }
+
+    private boolean isFresh(long time) {
+        return System.currentTimeMillis() - time < mTimeToLive;
+    }
+
+    private Entry get(String nick) {
+        Entry entry = mEntries.get(nick);
+        if (entry != null) {
+            if (!isFresh(entry.mSourceTime) && !isFresh(entry.mAccountTime) && !isFresh(entry.mWhoisTime)) {
+                remove(entry);
+                return null;
+            }
+            moveToHead(entry);
+        }
+        return entry;
+    }
+
+    private Entry getOrCreate(String nick) {
+        Entry entry = mEntries.get(nick);
+        if (entry == null) {
+            entry = new Entry(nick);
+            mEntries.put(nick, entry);
+            if (mEntries.size() > mMaxSize) {
+                remove(mTail);
+            }
+        }
+        moveToHead(entry);
+        return entry;
+    }
+
+    private void moveToHead(Entry entry) {
+        if (entry == mHead) {
+            return;
+        }
+        unlink(entry);
+        entry.mNext = mHead;
+        if (mHead != null) {
+            mHead.mPrevious = entry;
+        }
+        mHead = entry;
+        if (mTail == null) {
+            mTail = entry;
+        }
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.mPrevious != null) {
+            entry.mPrevious.mNext = entry.mNext;
+        }
+        if (entry.mNext != null) {
+            entry.mNext.mPrevious = entry.mPrevious;
+        }
+        if (mHead == entry) {
+            mHead = entry.mNext;
+        }
+        if (mTail == entry) {
+            mTail = entry.mPrevious;
+        }
+        entry.mPrevious = null;
+        entry.mNext = null;
+    }
+
+    private void remove(Entry entry) {
+        unlink(entry);
+        mEntries.remove(entry.mNick);
+    }
+
+    private static class Entry {
+        private final String mNick;
+        private Entry mPrevious;
+        private Entry mNext;
+
+        private Source mSource;
+        private long mSourceTime;
+        private String mAccount;
+        private long mAccountTime;
+        private WhoisInfo mWhois;
+        private long mWhoisTime;
+
+        private Entry(String nick) {
+            mNick = nick;
+        }
+    }
+}
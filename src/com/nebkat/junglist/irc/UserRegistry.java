@@ -0,0 +1,194 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc;
+
+import java.util.Map;
+
+/**
+ * Session wide registry of known users
+ *
+ * Holds a single {@link User} per nick, shared by every {@link Channel} the user is in. Each user tracks its own
+ * channels, so nick changes and quits only touch the channels of that user. Channels hold a {@link Membership} per
+ * user, which keeps its membership modes across nick changes.
+ *
+ * Changes are serialized on the registry and published as persistent snapshots, so lookups never lock.
+ */
+public class UserRegistry {
+    private volatile PersistentCaseMappedMap<User> mUsers;
+
+    /**
+     * Create a new empty registry.
+     *
+     * @param caseMapping Case mapping to compare nicks with.
+     */
+    public UserRegistry(CaseMapping caseMapping) {
+        mUsers = PersistentCaseMappedMap.empty(caseMapping);
+    }
+
+    /**
+     * Get a known user.
+     *
+     * @param nick User nick.
+     * @return User, or null if the user is not in any known channel.
+     */
+    public User get(String nick) {
+        return mUsers.get(nick);
+    }
+
+    /**
+     * Get all known users.
+     *
+     * @return Immutable snapshot of nicks to users.
+     */
+    public Map<String, User> getUsers() {
+        return mUsers;
+    }
+
+    /**
+     * Get the amount of known users.
+     *
+     * @return User count.
+     */
+    public int size() {
+        return mUsers.size();
+    }
+
+    /**
+     * Add a user to a channel, registering the user if not yet known.
+     *
+     * @param nick User nick.
+     * @param channel Channel joined.
+     * @return Membership of the user in the channel, kept if the user was already in the channel.
+     */
+    protected synchronized Membership join(String nick, Channel channel) {
+        User user = mUsers.get(nick);
+        if (user == null) {
+            user = new User(nick);
+            mUsers = mUsers.with(nick, user);
+        }
+        user.addChannel(channel);
+        Membership membership = channel.getMembership(nick);
+        if (membership == null || membership.getUser() != user) {
+            membership = new Membership(channel, user);
+            channel.putMember(nick, membership);
+        }
+        return membership;
+    }
+
+    /**
+     * Remove a user from a channel, forgetting the user if not in any other channel.
+     *
+     * @param nick User nick.
+     * @param channel Channel left.
+     * @return Removed user, or null if not known.
+     */
+    protected synchronized User part(String nick, Channel channel) {
+        channel.removeMember(nick);
+        User user = mUsers.get(nick);
+        if (user != null) {
+            user.removeChannel(channel);
+            if (user.getChannels().isEmpty()) {
+                mUsers = mUsers.without(nick);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Remove all users from a channel that is no longer joined.
+     *
+     * @param channel Channel left.
+     */
+    protected synchronized void partAll(Channel channel) {
+        PersistentCaseMappedMap<User> users = mUsers;
+        for (Membership membership : channel.getMembers().values()) {
+            User user = membership.getUser();
+            user.removeChannel(channel);
+            if (user.getChannels().isEmpty()) {
+                users = users.without(user.getNick());
+            }
+        }
+        mUsers = users;
+        channel.clearMembers();
+    }
+
+    /**
+     * Change the nick of a user in the registry and all of its channels.
+     *
+     * @param nick Original nick.
+     * @param newNick New nick.
+     * @return Renamed user, or null if not known.
+     */
+    protected synchronized User rename(String nick, String newNick) {
+        User user = mUsers.get(nick);
+        if (user == null) {
+            return null;
+        }
+        user.setNick(newNick);
+        mUsers = mUsers.without(nick).with(newNick, user);
+        for (Channel channel : user.getChannels()) {
+            Membership membership = channel.removeMember(nick);
+            channel.putMember(newNick, membership != null ? membership : new Membership(channel, user));
+        }
+        return user;
+    }
+
+    /**
+     * Remove a user from the registry and all of its channels.
+     *
+     * @param nick User nick.
+     * @return Removed user, or null if not known.
+     */
+    protected synchronized User quit(String nick) {
+        User user = mUsers.get(nick);
+        if (user == null) {
+            return null;
+        }
+        mUsers = mUsers.without(nick);
+        for (Channel channel : user.getChannels()) {
+            channel.removeMember(nick);
+        }
+        user.clearChannels();
+        return user;
+    }
+
+    /**
+     * Change the case mapping used to compare nicks.
+     *
+     * @param caseMapping Case mapping.
+     */
+    protected synchronized void setCaseMapping(CaseMapping caseMapping) {
+        mUsers = mUsers.withCaseMapping(caseMapping);
+    }
+
+    /**
+     * Forget all users.
+     */
+    protected synchronized void clear() {
+        for (User user : mUsers.values()) {
+            for (Channel channel : user.getChannels()) {
+                channel.clearMembers();
+            }
+            user.clearChannels();
+        }
+        mUsers = mUsers.cleared();
+    }
+}
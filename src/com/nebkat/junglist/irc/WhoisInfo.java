@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc;
+
+/**
+ * Information about a user collected from the replies to a <code>WHOIS</code> request.
+ *
+ * Fields the server did not send are null, or 0 for times.
+ */
+public class WhoisInfo {
+    private final String mNick;
+    private final String mUser;
+    private final String mHost;
+    private final String mRealname;
+    private final String mServer;
+    private final String mServerInfo;
+    private final long mIdle;
+    private final long mSignOn;
+    private final String[] mChannels;
+    private final String mAccount;
+
+    WhoisInfo(String nick, String user, String host, String realname, String server, String serverInfo, long idle,
+              long signOn, String[] channels, String account) {
+        mNick = nick;
+        mUser = user;
+        mHost = host;
+        mRealname = realname;
+        mServer = server;
+        mServerInfo = serverInfo;
+        mIdle = idle;
+        mSignOn = signOn;
+        mChannels = channels;
+        mAccount = account;
+    }
+
+    /**
+     * Get the user nick.
+     *
+     * @return Nick.
+     */
+    public String getNick() {
+        return mNick;
+    }
+
+    /**
+     * Get the user name.
+     *
+     * @return User name.
+     */
+    public String getUser() {
+        return mUser;
+    }
+
+    /**
+     * Get the user host.
+     *
+     * @return Host.
+     */
+    public String getHost() {
+        return mHost;
+    }
+
+    /**
+     * Get the <code>nick!user@host</code> source of the user.
+     *
+     * @return Source, or null if the user and host were not sent.
+     */
+    public Source getSource() {
+        return mUser != null && mHost != null ? new Source(mNick, mUser, mHost) : null;
+    }
+
+    /**
+     * Get the real name of the user.
+     *
+     * @return Real name.
+     */
+    public String getRealname() {
+        return mRealname;
+    }
+
+    /**
+     * Get the server the user is connected to.
+     *
+     * @return Server name.
+     */
+    public String getServer() {
+        return mServer;
+    }
+
+    /**
+     * Get the description of the server the user is connected to.
+     *
+     * @return Server description.
+     */
+    public String getServerInfo() {
+        return mServerInfo;
+    }
+
+    /**
+     * Get the time since the user last sent a message.
+     *
+     * @return Idle time in seconds.
+     */
+    public long getIdle() {
+        return mIdle;
+    }
+
+    /**
+     * Get the time the user connected.
+     *
+     * @return Unix time in seconds.
+     */
+    public long getSignOn() {
+        return mSignOn;
+    }
+
+    /**
+     * Get the channels the user is in, each preceded by the prefixes of the user's modes in it.
+     *
+     * @return Channels, empty if none are visible.
+     */
+    public String[] getChannels() {
+        return mChannels.clone();
+    }
+
+    /**
+     * Get the account the user is logged in to.
+     *
+     * @return Account name.
+     */
+    public String getAccount() {
+        return mAccount;
+    }
+
+    @Override
+    public String toString() {
+        return mNick + "!" + mUser + "@" + mHost + " (" + mRealname + ")";
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.events;
+
+import com.nebkat.junglist.irc.Log;
+import com.nebkat.junglist.irc.Target;
+import com.nebkat.junglist.irc.events.bbq.SessionEvent;
+import com.nebkat.junglist.irc.events.irc.IRCEvent;
+import com.nebkat.junglist.irc.events.irc.TargetEvent;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs {@link EventHandler}s on a pool of worker threads instead of the thread that read the event.
+ *
+ * Events are delivered in the order they were received for each ordering key, while events with different keys are
+ * handled in parallel. The amount of events waiting for delivery is bounded, see {@link OverflowPolicy}.
+ *
+ * @see EventHandlerManager#setAsyncDispatcher(AsyncEventDispatcher)
+ */
+public class AsyncEventDispatcher {
+    private static final String TAG = "AsyncEventDispatcher";
+
+    // Maximum amount of events delivered for a key before yielding the worker to other keys
+    private static final int MAX_EVENTS_PER_RUN = 32;
+
+    private static final AtomicInteger sWorkerId = new AtomicInteger();
+
+    /**
+     * Determines which events are delivered in order relative to each other.
+     */
+    public enum Ordering {
+        /**
+         * All events of a session are delivered in order.
+         */
+        SESSION,
+        /**
+         * Events of the same target (channel or user) are delivered in order. Events without a target are delivered in
+         * order relative to other events of the session without a target, but not relative to target events.
+         */
+        TARGET
+    }
+
+    /**
+     * Action taken when an event is dispatched while the queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait until there is space in the queue.
+         */
+        BLOCK,
+        /**
+         * Discard the oldest waiting event to make space.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the new event.
+         */
+        DROP_NEWEST
+    }
+
+    private final ExecutorService mExecutor;
+    private final int mCapacity;
+    private final OverflowPolicy mOverflowPolicy;
+    private final Ordering mOrdering;
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotFull = mLock.newCondition();
+    // All waiting tasks in the order they were dispatched
+    private final LinkedHashSet<Task> mPending = new LinkedHashSet<>();
+    // Queues of keys that have tasks waiting or being delivered
+    private final Map<Object, KeyQueue> mQueues = new HashMap<>();
+    private long mDropped;
+    private boolean mShutdown;
+
+    private final ThreadLocal<Boolean> mWorker = new ThreadLocal<>();
+
+    /**
+     * Initialize a new dispatcher with per session ordering that blocks when full.
+     *
+     * @param threads Amount of worker threads.
+     * @param capacity Maximum amount of events waiting for delivery.
+     */
+    public AsyncEventDispatcher(int threads, int capacity) {
+        this(threads, capacity, OverflowPolicy.BLOCK, Ordering.SESSION);
+    }
+
+    /**
+     * Initialize a new dispatcher.
+     *
+     * @param threads Amount of worker threads.
+     * @param capacity Maximum amount of events waiting for delivery.
+     * @param overflowPolicy Action taken when the queue is full.
+     * @param ordering Which events are delivered in order.
+     */
+    public AsyncEventDispatcher(int threads, int capacity, OverflowPolicy overflowPolicy, Ordering ordering) {
+        this(threads, capacity, overflowPolicy, ordering, (runnable) -> {
+            Thread thread = new Thread(runnable, "AsyncEventDispatcher" + sWorkerId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Initialize a new dispatcher using custom worker threads.
+     *
+     * @param threads Amount of worker threads.
+     * @param capacity Maximum amount of events waiting for delivery.
+     * @param overflowPolicy Action taken when the queue is full.
+     * @param ordering Which events are delivered in order.
+     * @param threadFactory Factory for worker threads.
+     */
+    public AsyncEventDispatcher(int threads, int capacity, OverflowPolicy overflowPolicy, Ordering ordering, ThreadFactory threadFactory) {
+        if (threads < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Thread count and capacity must be positive");
+        }
+        mExecutor = Executors.newFixedThreadPool(threads, threadFactory);
+        mCapacity = capacity;
+        mOverflowPolicy = overflowPolicy;
+        mOrdering = ordering;
+    }
+
+    /**
+     * Queue an event for delivery by an event handler manager.
+     *
+     * @param manager Event handler manager delivering the event.
+     * @param event Event to deliver.
+     */
+    void dispatch(EventHandlerManager manager, Event event) {
+        Task task = new Task(getKey(event), manager, event);
+        mLock.lock();
+        try {
+            // Workers never wait for space, as they may be the only ones able to make it
+            while (!mShutdown && mPending.size() >= mCapacity && mWorker.get() == null) {
+                if (mOverflowPolicy == OverflowPolicy.BLOCK) {
+                    mNotFull.awaitUninterruptibly();
+                } else if (mOverflowPolicy == OverflowPolicy.DROP_OLDEST) {
+                    Iterator<Task> iterator = mPending.iterator();
+                    Task oldest = iterator.next();
+                    iterator.remove();
+                    // The oldest waiting task is always at the head of its key queue
+                    mQueues.get(oldest.mKey).mTasks.poll();
+                    mDropped++;
+                } else {
+                    mDropped++;
+                    return;
+                }
+            }
+            if (mShutdown) {
+                Log.w(TAG, "Dropping event " + event.getClass().getSimpleName() + ": Dispatcher shut down");
+                return;
+            }
+
+            KeyQueue queue = mQueues.get(task.mKey);
+            if (queue == null) {
+                queue = new KeyQueue(task.mKey);
+                mQueues.put(task.mKey, queue);
+            }
+            queue.mTasks.add(task);
+            mPending.add(task);
+            if (!queue.mScheduled) {
+                queue.mScheduled = true;
+                mExecutor.execute(queue);
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private Object getKey(Event event) {
+        if (mOrdering == Ordering.TARGET && event instanceof TargetEvent) {
+            Target target = ((TargetEvent) event).getTarget();
+            if (target != null) {
+                return target;
+            }
+        }
+        if (event instanceof IRCEvent) {
+            return ((IRCEvent) event).getSession();
+        } else if (event instanceof SessionEvent) {
+            return ((SessionEvent) event).getSession();
+        }
+        return this;
+    }
+
+    /**
+     * Get the amount of events discarded due to a full queue.
+     *
+     * @return Dropped event count.
+     */
+    public long getDroppedCount() {
+        mLock.lock();
+        try {
+            return mDropped;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Get the amount of events waiting for delivery.
+     *
+     * @return Waiting event count.
+     */
+    public int getPendingCount() {
+        mLock.lock();
+        try {
+            return mPending.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting events. Events already queued are still delivered.
+     */
+    public void shutdown() {
+        mLock.lock();
+        try {
+            mShutdown = true;
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+        mExecutor.shutdown();
+    }
+
+    private static class Task {
+        private final Object mKey;
+        private final EventHandlerManager mManager;
+        private final Event mEvent;
+
+        private Task(Object key, EventHandlerManager manager, Event event) {
+            mKey = key;
+            mManager = manager;
+            mEvent = event;
+        }
+    }
+
+    /**
+     * Delivers the tasks of a single key, scheduled on at most one worker at a time.
+     */
+    private class KeyQueue implements Runnable {
+        private final Object mKey;
+        private final ArrayDeque<Task> mTasks = new ArrayDeque<>();
+        private boolean mScheduled;
+
+        private KeyQueue(Object key) {
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            mWorker.set(Boolean.TRUE);
+            try {
+                while (true) {
+                    for (int i = 0; i < MAX_EVENTS_PER_RUN; i++) {
+                        Task task;
+                        mLock.lock();
+                        try {
+                            task = mTasks.poll();
+                            if (task == null) {
+                                mScheduled = false;
+                                mQueues.remove(mKey);
+                                return;
+                            }
+                            mPending.remove(task);
+                            mNotFull.signal();
+                        } finally {
+                            mLock.unlock();
+                        }
+                        task.mManager.dispatchEvent(task.mEvent);
+                    }
+
+                    // Yield to other keys and continue later
+                    mLock.lock();
+                    try {
+                        if (mTasks.isEmpty()) {
+                            mScheduled = false;
+                            mQueues.remove(mKey);
+                            return;
+                        }
+                        mExecutor.execute(this);
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        // Shutting down, finish delivering on this worker
+                    } finally {
+                        mLock.unlock();
+                    }
+                }
+            } finally {
+                mWorker.remove();
+            }
+        }
+    }
+}
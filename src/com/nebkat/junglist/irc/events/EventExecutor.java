@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.events;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Invokes an {@link EventHandler} method.
+ */
+interface EventExecutor {
+    MethodType EXECUTE_TYPE = MethodType.methodType(void.class, EventListener.class, Event.class);
+
+    /**
+     * Invoke the handler method.
+     *
+     * @param listener Listener containing the handler method.
+     * @param event Event to pass.
+     * @throws Throwable Anything thrown by the handler method.
+     */
+    void execute(EventListener listener, Event event) throws Throwable;
+
+    /**
+     * Create an executor for a handler method.
+     *
+     * Public handler methods of public classes are bound to a generated class calling the method directly, so that the
+     * call can be inlined. All other methods are called through a method handle.
+     *
+     * @param method Accessible handler method.
+     * @return Executor.
+     * @throws IllegalAccessException If the method is not accessible.
+     */
+    static EventExecutor create(Method method) throws IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle handle = lookup.unreflect(method);
+
+        if (Modifier.isStatic(method.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, EventListener.class);
+        } else if (Modifier.isPublic(method.getModifiers()) && Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            try {
+                CallSite site = LambdaMetafactory.metafactory(lookup, "execute", MethodType.methodType(EventExecutor.class),
+                        EXECUTE_TYPE, handle, handle.type().changeReturnType(void.class));
+                return (EventExecutor) site.getTarget().invoke();
+            } catch (Throwable t) {
+                // Fall back to the method handle
+            }
+        }
+
+        final MethodHandle executeHandle = handle.asType(EXECUTE_TYPE);
+        return (listener, event) -> {
+            executeHandle.invokeExact(listener, event);
+        };
+    }
+}
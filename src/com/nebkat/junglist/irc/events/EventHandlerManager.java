@@ -20,19 +20,19 @@
 package com.nebkat.junglist.irc.events;
 
 import com.nebkat.junglist.irc.Log;
+import com.nebkat.junglist.irc.events.irc.CompiledSourceFilter;
+import com.nebkat.junglist.irc.events.irc.SourceFilter;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.function.Function;
 
 /**
  * Manages all {@link EventListener}s and {@link Event} distribution.
@@ -40,15 +40,38 @@ import java.util.function.Function;
 public class EventHandlerManager {
     private static final String TAG = "EventHandlerManager";
 
-    private Map<Class<?>, List<RegisteredListener>> mHandlers = new HashMap<>();
-    private BlockingQueue<Function> mEventExecutorQueue = new LinkedBlockingQueue<>();
+    private static final RegisteredListener[] NO_LISTENERS = new RegisteredListener[0];
+
+    private final Map<Class<?>, List<RegisteredListener>> mHandlers = new HashMap<>();
+    private volatile AsyncEventDispatcher mAsyncDispatcher;
+
+    // Flattened handlers per concrete event class, replaced whenever the registrations change
+    private volatile ClassValue<RegisteredListener[]> mDispatchCache = createDispatchCache();
 
     /**
      * Clear all {@link EventHandler}s
      */
-    public void clear() {
-        mHandlers.values().forEach(List::clear);
+    public synchronized void clear() {
         mHandlers.clear();
+        mDispatchCache = createDispatchCache();
+    }
+
+    /**
+     * Set the dispatcher used to run {@link EventHandler}s asynchronously.
+     *
+     * @param dispatcher Asynchronous dispatcher, or null to run handlers on the thread calling the event.
+     */
+    public void setAsyncDispatcher(AsyncEventDispatcher dispatcher) {
+        mAsyncDispatcher = dispatcher;
+    }
+
+    /**
+     * Get the dispatcher used to run {@link EventHandler}s asynchronously.
+     *
+     * @return Asynchronous dispatcher, or null if handlers run on the thread calling the event.
+     */
+    public AsyncEventDispatcher getAsyncDispatcher() {
+        return mAsyncDispatcher;
     }
 
     /**
@@ -57,9 +80,12 @@ public class EventHandlerManager {
      * @param listener Event listener.
      */
     public void registerEvents(EventListener listener) {
-        for (Map.Entry<Class<? extends Event>, Set<RegisteredListener>> entry : createRegisteredListeners(listener).entrySet()) {
-            mHandlers.putIfAbsent(entry.getKey(), new CopyOnWriteArrayList<>());
-            mHandlers.get(entry.getKey()).addAll(entry.getValue());
+        Map<Class<?>, Set<RegisteredListener>> registeredListeners = createRegisteredListeners(listener);
+        synchronized (this) {
+            for (Map.Entry<Class<?>, Set<RegisteredListener>> entry : registeredListeners.entrySet()) {
+                mHandlers.computeIfAbsent(entry.getKey(), (key) -> new ArrayList<>()).addAll(entry.getValue());
+            }
+            mDispatchCache = createDispatchCache();
         }
     }
 
@@ -68,12 +94,51 @@ public class EventHandlerManager {
      *
      * @param listener Event listener.
      */
-    public void unregisterEvents(EventListener listener) {
+    public synchronized void unregisterEvents(EventListener listener) {
         mHandlers.values().forEach((list) -> list.removeIf((registeredListener) -> registeredListener.getListener() == listener));
+        mHandlers.values().removeIf(List::isEmpty);
+        mDispatchCache = createDispatchCache();
+    }
+
+    private ClassValue<RegisteredListener[]> createDispatchCache() {
+        return new ClassValue<RegisteredListener[]>() {
+            @Override
+            protected RegisteredListener[] computeValue(Class<?> eventClass) {
+                return collectHandlers(eventClass);
+            }
+        };
     }
 
-    private Map<Class<? extends Event>, Set<RegisteredListener>> createRegisteredListeners(EventListener listener) {
-        Map<Class<? extends Event>, Set<RegisteredListener>> ret = new HashMap<>();
+    /**
+     * Collects the handlers that receive events of the given class, in the order they are called: handlers for the
+     * class itself and each of its superclasses first, followed by handlers for any implemented interfaces.
+     *
+     * @param eventClass Concrete event class.
+     * @return Handlers for the event class.
+     */
+    private synchronized RegisteredListener[] collectHandlers(Class<?> eventClass) {
+        List<RegisteredListener> ret = new ArrayList<>();
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+        for (Class<?> clazz = eventClass; clazz != null && Event.class.isAssignableFrom(clazz); clazz = clazz.getSuperclass()) {
+            List<RegisteredListener> handlers = mHandlers.get(clazz);
+            if (handlers != null) ret.addAll(handlers);
+            collectInterfaces(clazz, interfaces);
+        }
+        for (Class<?> clazz : interfaces) {
+            List<RegisteredListener> handlers = mHandlers.get(clazz);
+            if (handlers != null) ret.addAll(handlers);
+        }
+        return ret.isEmpty() ? NO_LISTENERS : ret.toArray(new RegisteredListener[ret.size()]);
+    }
+
+    private static void collectInterfaces(Class<?> clazz, Set<Class<?>> interfaces) {
+        for (Class<?> iface : clazz.getInterfaces()) {
+            if (interfaces.add(iface)) collectInterfaces(iface, interfaces);
+        }
+    }
+
+    private Map<Class<?>, Set<RegisteredListener>> createRegisteredListeners(EventListener listener) {
+        Map<Class<?>, Set<RegisteredListener>> ret = new HashMap<>();
 
         for (final Method method : listener.getClass().getDeclaredMethods()) {
             final EventHandler eh = method.getAnnotation(EventHandler.class);
@@ -83,11 +148,12 @@ public class EventHandlerManager {
                 continue;
             }
             final Class<?> checkClass = method.getParameterTypes()[0];
-            if (!Event.class.isAssignableFrom(checkClass)) {
+            // Interfaces implemented by events (such as TargetEvent) may also be handled
+            if (!Event.class.isAssignableFrom(checkClass) && !checkClass.isInterface()) {
                 Log.e(TAG, "Could not register event handler " + method.getName() + ": " + checkClass.getSimpleName() + " does not extend Event.class");
                 continue;
             }
-            final Class<? extends Event> eventClass = checkClass.asSubclass(Event.class);
+            final Class<?> eventClass = checkClass;
             method.setAccessible(true);
             Set<RegisteredListener> eventSet = ret.get(eventClass);
             if (eventSet == null) {
@@ -106,29 +172,63 @@ public class EventHandlerManager {
             // Get all event filters for method
             Annotation[] filters = Arrays.stream(method.getDeclaredAnnotations())
                     .filter((annotation) -> annotation.annotationType().getAnnotation(EventFilter.class) != null)
+                    .map(EventHandlerManager::compileFilter)
                     .toArray(Annotation[]::new);
 
-            eventSet.add(new RegisteredListener(listener, method, filters));
+            EventExecutor executor;
+            try {
+                executor = EventExecutor.create(method);
+            } catch (IllegalAccessException e) {
+                Log.e(TAG, "Could not register event handler " + method.getName() + ": Method not accessible", e);
+                continue;
+            }
+
+            eventSet.add(new RegisteredListener(listener, executor, filters));
         }
         return ret;
     }
 
+    /**
+     * Replace filters that can be prepared ahead of time with their compiled form.
+     *
+     * @param filter Filter annotation.
+     * @return Compiled filter, or the original filter.
+     */
+    private static Annotation compileFilter(Annotation filter) {
+        if (filter instanceof SourceFilter) {
+            return new CompiledSourceFilter((SourceFilter) filter);
+        }
+        return filter;
+    }
+
     /**
      * Pass an event to registered {@link EventHandler}s.
      *
+     * If an {@link AsyncEventDispatcher} is set the handlers are run by its workers and this method returns
+     * immediately, unless the dispatcher blocks because it is full.
+     *
      * @param event Event to pass.
      */
     public void callEvent(Event event) {
-        for (Class<?> clazz = event.getClass(); Event.class.isAssignableFrom(clazz); clazz = clazz.getSuperclass()) {
-            List<RegisteredListener> handlers = mHandlers.get(clazz);
-            if (handlers != null) {
-                for (RegisteredListener registration : handlers) {
-                    try {
-                        registration.callEvent(event);
-                    } catch (Throwable ex) {
-                        Log.e(TAG, "Could not pass event " + event.getClass().getSimpleName() + " to " + registration.getListener().getClass().getName(), ex);
-                    }
-                }
+        AsyncEventDispatcher dispatcher = mAsyncDispatcher;
+        if (dispatcher == null) {
+            dispatchEvent(event);
+        } else if (mDispatchCache.get(event.getClass()).length > 0) {
+            dispatcher.dispatch(this, event);
+        }
+    }
+
+    /**
+     * Pass an event to registered {@link EventHandler}s on the current thread.
+     *
+     * @param event Event to pass.
+     */
+    void dispatchEvent(Event event) {
+        for (RegisteredListener registration : mDispatchCache.get(event.getClass())) {
+            try {
+                registration.callEvent(event);
+            } catch (Throwable ex) {
+                Log.e(TAG, "Could not pass event " + event.getClass().getSimpleName() + " to " + registration.getListener().getClass().getName(), ex);
             }
         }
     }
@@ -20,20 +20,18 @@
 package com.nebkat.junglist.irc.events;
 
 import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 
 /**
  * Stores relevant information for event listeners.
  */
 class RegisteredListener {
     private final EventListener mListener;
-    private final Method mMethod;
+    private final EventExecutor mExecutor;
     private final Annotation[] mFilters;
 
-    public RegisteredListener(final EventListener listener, final Method method, final Annotation[] filters) {
+    public RegisteredListener(final EventListener listener, final EventExecutor executor, final Annotation[] filters) {
         mListener = listener;
-        mMethod = method;
+        mExecutor = executor;
         mFilters = filters;
     }
 
@@ -50,17 +48,11 @@ class RegisteredListener {
      * Calls the event executor if filter matches.
      *
      * @param event The event to call.
-     * @throws Exception If an event handler throws an exception.
+     * @throws Throwable If an event handler throws an exception.
      */
-    public void callEvent(final Event event) throws Exception {
-        try {
-            if (event.filter(mFilters)) {
-                mMethod.invoke(mListener, event);
-            }
-        } catch (InvocationTargetException ex) {
-            throw new Exception(ex.getCause());
-        } catch (Throwable t) {
-            throw new Exception(t);
+    public void callEvent(final Event event) throws Throwable {
+        if (event.filter(mFilters)) {
+            mExecutor.execute(mListener, event);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.events.bbq;
+
+import com.nebkat.junglist.irc.Channel;
+import com.nebkat.junglist.irc.Session;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Users lost in a netsplit between two servers
+ *
+ * Aggregates a burst of individual events, delivered once the burst has ended.
+ */
+public class NetSplitEvent extends SessionEvent {
+    protected final String mServer;
+    protected final String mRemoteServer;
+    protected final List<String> mNicks;
+    protected final Map<Channel, List<String>> mChannels;
+
+    /**
+     * Users lost in a netsplit between two servers
+     *
+     * @param session IRC session the event happened on.
+     * @param server Server that remained connected.
+     * @param remoteServer Server that split off.
+     * @param nicks Nicks of all users that quit.
+     * @param channels Nicks of the users that quit each channel.
+     */
+    public NetSplitEvent(long time, Session session, String server, String remoteServer, List<String> nicks, Map<Channel, List<String>> channels) {
+        super(time, session);
+        mServer = server;
+        mRemoteServer = remoteServer;
+        mNicks = nicks;
+        mChannels = channels;
+    }
+
+    public String getServer() {
+        return mServer;
+    }
+
+    public String getRemoteServer() {
+        return mRemoteServer;
+    }
+
+    public List<String> getNicks() {
+        return mNicks;
+    }
+
+    public Map<Channel, List<String>> getChannels() {
+        return mChannels;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getClass().getSimpleName() + "] " + mServer + " " + mRemoteServer + " (" + mNicks.size() + " users)";
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.events.irc;
+
+import com.nebkat.junglist.irc.Session;
+import com.nebkat.junglist.irc.Source;
+
+/**
+ * User away status change event, sent by servers with the <code>away-notify</code> capability enabled
+ */
+public class AwayEvent extends IRCEvent {
+    protected final String mMessage;
+
+    /**
+     * User away status change event
+     *
+     * @param session IRC session the event happened on.
+     * @param data Raw event data.
+     * @param user User that changed away status.
+     * @param message Away message, or null if the user is back.
+     */
+    public AwayEvent(long time, Session session, String data, Source user, String message) {
+        super(time, session, data, user);
+        mMessage = message;
+    }
+
+    public Source getUser() {
+        return mSource;
+    }
+
+    public String getMessage() {
+        return mMessage;
+    }
+
+    public boolean isAway() {
+        return mMessage != null;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getClass().getSimpleName() + "] <" + mSource.getNick() + "> " + (mMessage != null ? "away (" + mMessage + ")" : "back");
+    }
+}
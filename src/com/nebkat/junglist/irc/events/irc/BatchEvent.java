@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.events.irc;
+
+import com.nebkat.junglist.irc.Session;
+import com.nebkat.junglist.irc.Source;
+
+/**
+ * Batch start or end event, sent by servers with the <code>batch</code> capability enabled
+ *
+ * Lines belonging to a batch carry its reference in the <code>batch</code> tag, see {@link IRCEvent#getBatch()}.
+ */
+public class BatchEvent extends IRCEvent {
+    protected final String mReference;
+    protected final boolean mStart;
+    protected final String mType;
+    protected final String[] mParameters;
+
+    /**
+     * Batch start or end event
+     *
+     * @param session IRC session the event happened on.
+     * @param data Raw event data.
+     * @param source Server that sent the batch.
+     * @param reference Batch reference, without the leading '+' or '-'.
+     * @param start True if the batch starts, false if it ends.
+     * @param type Batch type, or null if the batch ends.
+     * @param parameters Batch parameters.
+     */
+    public BatchEvent(long time, Session session, String data, Source source, String reference, boolean start, String type, String[] parameters) {
+        super(time, session, data, source);
+        mReference = reference;
+        mStart = start;
+        mType = type;
+        mParameters = parameters;
+    }
+
+    public String getReference() {
+        return mReference;
+    }
+
+    public boolean isStart() {
+        return mStart;
+    }
+
+    public String getType() {
+        return mType;
+    }
+
+    public String[] getParameters() {
+        return mParameters;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getClass().getSimpleName() + "] " + (mStart ? "+" + mReference + " " + mType : "-" + mReference);
+    }
+}
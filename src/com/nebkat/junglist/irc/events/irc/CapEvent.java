@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.events.irc;
+
+import com.nebkat.junglist.irc.Session;
+import com.nebkat.junglist.irc.Source;
+
+import java.util.Map;
+
+/**
+ * Capability negotiation event
+ */
+public class CapEvent extends IRCEvent {
+    public static final String SUBCOMMAND_LS = "LS";
+    public static final String SUBCOMMAND_LIST = "LIST";
+    public static final String SUBCOMMAND_ACK = "ACK";
+    public static final String SUBCOMMAND_NAK = "NAK";
+    public static final String SUBCOMMAND_NEW = "NEW";
+    public static final String SUBCOMMAND_DEL = "DEL";
+
+    protected final String mSubcommand;
+    protected final Map<String, String> mCapabilities;
+    protected final boolean mContinued;
+
+    /**
+     * Capability negotiation event
+     *
+     * @param session IRC session the event happened on.
+     * @param data Raw event data.
+     * @param source Server that sent the event.
+     * @param subcommand Subcommand, such as {@link #SUBCOMMAND_ACK}.
+     * @param capabilities Capability names mapped to their values, empty if none.
+     * @param continued True if more lines of the same reply follow.
+     */
+    public CapEvent(long time, Session session, String data, Source source, String subcommand, Map<String, String> capabilities, boolean continued) {
+        super(time, session, data, source);
+        mSubcommand = subcommand;
+        mCapabilities = capabilities;
+        mContinued = continued;
+    }
+
+    public String getSubcommand() {
+        return mSubcommand;
+    }
+
+    /**
+     * @return Capability names mapped to their values, in the order sent. Names of <code>ACK</code> replies disabling
+     * a capability start with '-'.
+     */
+    public Map<String, String> getCapabilities() {
+        return mCapabilities;
+    }
+
+    public boolean isContinued() {
+        return mContinued;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getClass().getSimpleName() + "] " + mSubcommand + " " + mCapabilities.keySet();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.events.irc;
+
+import com.nebkat.junglist.irc.Mask;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * {@link SourceFilter} with its mask compiled once when the handler is registered.
+ */
+public final class CompiledSourceFilter implements SourceFilter {
+    private final String mValue;
+    private final Mask mMask;
+
+    public CompiledSourceFilter(SourceFilter filter) {
+        mValue = filter.value();
+        mMask = Mask.compile(mValue);
+    }
+
+    /**
+     * Get the compiled mask.
+     *
+     * @return Compiled mask.
+     */
+    public Mask getMask() {
+        return mMask;
+    }
+
+    @Override
+    public String value() {
+        return mValue;
+    }
+
+    @Override
+    public Class<? extends Annotation> annotationType() {
+        return SourceFilter.class;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof SourceFilter && ((SourceFilter) o).value().equals(mValue);
+    }
+
+    @Override
+    public int hashCode() {
+        // As specified by Annotation#hashCode()
+        return (127 * "value".hashCode()) ^ mValue.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "@" + SourceFilter.class.getName() + "(value=" + mValue + ")";
+    }
+}
@@ -22,8 +22,10 @@ package com.nebkat.junglist.irc.events.irc;
 import com.nebkat.junglist.irc.Session;
 import com.nebkat.junglist.irc.Source;
 import com.nebkat.junglist.irc.events.Event;
+import com.nebkat.junglist.irc.parser.MessageTags;
 
 import java.lang.annotation.Annotation;
+import java.util.Map;
 
 /**
  * Generic IRC event
@@ -33,6 +35,8 @@ public abstract class IRCEvent extends Event {
     protected final String mData;
     protected final Source mSource;
 
+    private volatile Map<String, String> mTags;
+
     public IRCEvent(long time, Session session, String data, Source source) {
         super(time);
         mSession = session;
@@ -52,10 +56,50 @@ public abstract class IRCEvent extends Event {
         return mSource;
     }
 
+    /**
+     * Get the IRCv3 message tags of the event. Tags are only unescaped on first access.
+     *
+     * @return Immutable map of message tags, empty if the event has none.
+     */
+    public Map<String, String> getTags() {
+        Map<String, String> tags = mTags;
+        if (tags == null) {
+            tags = MessageTags.parse(mData);
+            mTags = tags;
+        }
+        return tags;
+    }
+
+    /**
+     * Get a single IRCv3 message tag of the event.
+     *
+     * @param key Tag key.
+     * @return Tag value, empty if the tag has no value, or null if the tag is not present.
+     */
+    public String getTag(String key) {
+        Map<String, String> tags = mTags;
+        return tags != null ? tags.get(key) : MessageTags.get(mData, key);
+    }
+
+    /**
+     * Get the reference of the batch the event is part of.
+     *
+     * @return Batch reference, or null if the event is not part of a batch.
+     *
+     * @see BatchEvent
+     */
+    public String getBatch() {
+        return getTag("batch");
+    }
+
     @Override
     protected boolean filter(Annotation[] filters) {
         for (Annotation filter : filters) {
-            if (filter instanceof SourceFilter) {
+            if (filter instanceof CompiledSourceFilter) {
+                if (!((CompiledSourceFilter) filter).getMask().matches(mSource)) {
+                    return false;
+                }
+            } else if (filter instanceof SourceFilter) {
                 String mask = ((SourceFilter) filter).value();
                 if (!mSource.match(mask)) {
                     return false;
@@ -31,6 +31,8 @@ import java.lang.annotation.Annotation;
  */
 public class JoinEvent extends IRCEvent implements ChannelEvent {
     protected final Channel mChannel;
+    protected final String mAccount;
+    protected final String mRealname;
 
     /**
      * User join channel event
@@ -41,8 +43,24 @@ public class JoinEvent extends IRCEvent implements ChannelEvent {
      * @param channel Channel the user joined.
      */
     public JoinEvent(long time, Session session, String data, Source user, Channel channel) {
+        this(time, session, data, user, channel, null, null);
+    }
+
+    /**
+     * User join channel event with the details sent by servers with the <code>extended-join</code> capability enabled
+     *
+     * @param session IRC session the event happened on.
+     * @param data Raw event data.
+     * @param user User that joined the channel.
+     * @param channel Channel the user joined.
+     * @param account Account the user is logged in to, or null if not logged in or not known.
+     * @param realname Real name of the user, or null if not known.
+     */
+    public JoinEvent(long time, Session session, String data, Source user, Channel channel, String account, String realname) {
         super(time, session, data, user);
         mChannel = channel;
+        mAccount = account;
+        mRealname = realname;
     }
 
     @Override
@@ -59,6 +77,24 @@ public class JoinEvent extends IRCEvent implements ChannelEvent {
         return mSource;
     }
 
+    public String getAccount() {
+        return mAccount;
+    }
+
+    public String getRealname() {
+        return mRealname;
+    }
+
+    /**
+     * Check whether the join was sent with the <code>extended-join</code> details, so a null account means the user is
+     * not logged in rather than not known.
+     *
+     * @return True if extended.
+     */
+    public boolean isExtended() {
+        return mRealname != null;
+    }
+
     @Override
     protected boolean filter(Annotation[] filters) {
         for (Annotation filter : filters) {
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.events.irc;
+
+/**
+ * Single mode change of a {@link ModeEvent}, such as <code>+o nick</code>
+ */
+public class ModeChange {
+    private final boolean mAdding;
+    private final char mMode;
+    private final String mParameter;
+
+    /**
+     * Single mode change
+     *
+     * @param adding True if the mode was set, false if it was unset.
+     * @param mode Mode character.
+     * @param parameter Mode parameter, or null if the mode takes none.
+     */
+    public ModeChange(boolean adding, char mode, String parameter) {
+        mAdding = adding;
+        mMode = mode;
+        mParameter = parameter;
+    }
+
+    public boolean isAdding() {
+        return mAdding;
+    }
+
+    public char getMode() {
+        return mMode;
+    }
+
+    public String getParameter() {
+        return mParameter;
+    }
+
+    @Override
+    public String toString() {
+        return (mAdding ? "+" : "-") + mMode + (mParameter != null ? " " + mParameter : "");
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.events.irc;
+
+import com.nebkat.junglist.irc.Channel;
+import com.nebkat.junglist.irc.Session;
+import com.nebkat.junglist.irc.Source;
+import com.nebkat.junglist.irc.Target;
+
+import java.lang.annotation.Annotation;
+import java.util.List;
+
+/**
+ * Channel or user mode change event
+ */
+public class ModeEvent extends IRCEvent implements TargetEvent {
+    protected final Target mTarget;
+    protected final String mModes;
+    protected final List<ModeChange> mChanges;
+
+    /**
+     * Channel or user mode change event
+     *
+     * @param session IRC session the event happened on.
+     * @param data Raw event data.
+     * @param source User or server that changed the modes.
+     * @param target Channel or user the modes were changed on.
+     * @param modes Mode string and parameters as sent.
+     * @param changes Individual mode changes.
+     */
+    public ModeEvent(long time, Session session, String data, Source source, Target target, String modes, List<ModeChange> changes) {
+        super(time, session, data, source);
+        mTarget = target;
+        mModes = modes;
+        mChanges = changes;
+    }
+
+    @Override
+    public Target getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * Get the channel the modes were changed on.
+     *
+     * @return Channel, or null if user modes were changed.
+     */
+    public Channel getChannel() {
+        return mTarget instanceof Channel ? (Channel) mTarget : null;
+    }
+
+    public String getModes() {
+        return mModes;
+    }
+
+    public List<ModeChange> getChanges() {
+        return mChanges;
+    }
+
+    @Override
+    protected boolean filter(Annotation[] filters) {
+        for (Annotation filter : filters) {
+            if (filter instanceof TargetFilter) {
+                String target = ((TargetFilter) filter).value();
+                if (!mTarget.getName().equalsIgnoreCase(target)) {
+                    return false;
+                }
+            }
+        }
+        return super.filter(filters);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + getClass().getSimpleName() + "] <" + mSource.getNick() + "> set mode " + mModes + " on " + mTarget.getName();
+    }
+}
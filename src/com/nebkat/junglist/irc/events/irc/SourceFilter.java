@@ -26,6 +26,9 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Only pass events whose source matches a wildcard {@link com.nebkat.junglist.irc.Mask}, such as <code>nick!*@*</code>.
+ */
 @EventFilter
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
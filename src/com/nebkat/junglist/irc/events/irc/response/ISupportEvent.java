@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.events.irc.response;
+
+import com.nebkat.junglist.irc.Session;
+import com.nebkat.junglist.irc.Source;
+
+import java.util.Map;
+
+/**
+ * Server features advertised with <code>RPL_ISUPPORT</code>
+ */
+public class ISupportEvent extends ResponseEvent {
+    protected final Map<String, String> mTokens;
+
+    /**
+     * Server features advertised with <code>RPL_ISUPPORT</code>
+     *
+     * @param session IRC session the event happened on.
+     * @param data Raw event data.
+     * @param source Server that sent the features.
+     * @param tokens Token names mapped to their unescaped values, or to null if no longer supported.
+     */
+    public ISupportEvent(long time, Session session, String data, Source source, Map<String, String> tokens) {
+        super(time, session, data, source);
+        mTokens = tokens;
+    }
+
+    public Map<String, String> getTokens() {
+        return mTokens;
+    }
+}
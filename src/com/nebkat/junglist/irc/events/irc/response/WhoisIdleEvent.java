@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.events.irc.response;
+
+import com.nebkat.junglist.irc.Session;
+import com.nebkat.junglist.irc.Source;
+
+public class WhoisIdleEvent extends WhoisEvent {
+    protected final long mIdle;
+    protected final long mSignOn;
+
+    public WhoisIdleEvent(long time, Session session, String data, Source source, String nick, long idle, long signOn) {
+        super(time, session, data, source, nick);
+        mIdle = idle;
+        mSignOn = signOn;
+    }
+
+    /**
+     * @return Seconds since the user last sent a message.
+     */
+    public long getIdle() {
+        return mIdle;
+    }
+
+    /**
+     * @return Unix time the user connected, or 0 if not sent by the server.
+     */
+    public long getSignOn() {
+        return mSignOn;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.parser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * IRCv3 message tags
+ *
+ * Tags are kept as a span of the raw line and only unescaped when requested.
+ */
+public class MessageTags {
+    /**
+     * Parse all message tags of a raw line.
+     *
+     * @param raw Raw line.
+     * @return Immutable map of tag keys to unescaped values, empty if the line has no tags.
+     */
+    public static Map<String, String> parse(String raw) {
+        int end = end(raw);
+        return end == -1 ? Collections.emptyMap() : parse(raw, 1, end);
+    }
+
+    /**
+     * Parse message tags from a span of a raw line.
+     *
+     * @param raw Raw line.
+     * @param start Start of the tags, after the leading '@'.
+     * @param end End of the tags, before the following space.
+     * @return Immutable map of tag keys to unescaped values. Tags without a value map to an empty string.
+     */
+    public static Map<String, String> parse(String raw, int start, int end) {
+        Map<String, String> tags = new HashMap<>();
+        while (start < end) {
+            int tagEnd = raw.indexOf(';', start);
+            if (tagEnd == -1 || tagEnd > end) {
+                tagEnd = end;
+            }
+            int equals = raw.indexOf('=', start);
+            if (equals == -1 || equals > tagEnd) {
+                equals = tagEnd;
+            }
+            if (equals > start) {
+                tags.put(raw.substring(start, equals), equals < tagEnd ? unescape(raw, equals + 1, tagEnd) : "");
+            }
+            start = tagEnd + 1;
+        }
+        return Collections.unmodifiableMap(tags);
+    }
+
+    /**
+     * Find a single message tag of a raw line without parsing the others.
+     *
+     * @param raw Raw line.
+     * @param key Tag key.
+     * @return Unescaped tag value, empty if the tag has no value, or null if the tag is not present.
+     */
+    public static String get(String raw, String key) {
+        int end = end(raw);
+        int start = 1;
+        while (start < end) {
+            int tagEnd = raw.indexOf(';', start);
+            if (tagEnd == -1 || tagEnd > end) {
+                tagEnd = end;
+            }
+            int keyEnd = start + key.length();
+            if (keyEnd <= tagEnd && raw.startsWith(key, start) && (keyEnd == tagEnd || raw.charAt(keyEnd) == '=')) {
+                return keyEnd == tagEnd ? "" : unescape(raw, keyEnd + 1, tagEnd);
+            }
+            start = tagEnd + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Unescape a tag value.
+     *
+     * @param raw Raw line.
+     * @param start Start of the escaped value.
+     * @param end End of the escaped value.
+     * @return Unescaped value.
+     */
+    public static String unescape(String raw, int start, int end) {
+        int escape = raw.indexOf('\\', start);
+        if (escape == -1 || escape >= end) {
+            return raw.substring(start, end);
+        }
+        StringBuilder value = new StringBuilder(end - start);
+        value.append(raw, start, escape);
+        for (int i = escape; i < end; i++) {
+            char c = raw.charAt(i);
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            if (++i == end) {
+                break;
+            }
+            c = raw.charAt(i);
+            switch (c) {
+                case ':':
+                    value.append(';');
+                    break;
+                case 's':
+                    value.append(' ');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                default:
+                    value.append(c);
+                    break;
+            }
+        }
+        return value.toString();
+    }
+
+    /**
+     * Find the end of the tags of a raw line.
+     *
+     * @param raw Raw line.
+     * @return Index of the space following the tags, or -1 if the line has no tags.
+     */
+    private static int end(String raw) {
+        if (raw == null || raw.isEmpty() || raw.charAt(0) != '@') {
+            return -1;
+        }
+        return raw.indexOf(' ');
+    }
+}
@@ -17,37 +17,179 @@
  * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+
 package com.nebkat.junglist.irc.parser;
 
 import com.nebkat.junglist.irc.Source;
+import com.nebkat.junglist.irc.SourceCache;
+
+import java.util.Collections;
+import java.util.Map;
 
 public class ParseToken {
     private final String mRaw;
-    private final Source mSource;
-    private final String mCommand;
-    private final String[] mParams;
+    private final int mTagsStart;
+    private final int mTagsEnd;
+    private final int mSourceStart;
+    private final int mSourceEnd;
+    private final int mCommandStart;
+    private final int mCommandEnd;
+    private final int[] mParamOffsets;
+    private final int mParamCount;
+
+    private SourceCache mSourceCache;
+    private Map<String, String> mTags;
+    private Source mSource;
+    private String mCommand;
+    private String[] mParams;
 
     public ParseToken(String raw, Source source, String command, String[] params) {
         mRaw = raw;
         mSource = source;
         mCommand = command;
         mParams = params;
+        mTagsStart = mTagsEnd = -1;
+        mSourceStart = mSourceEnd = -1;
+        mCommandStart = mCommandEnd = -1;
+        mParamOffsets = null;
+        mParamCount = params.length;
     }
 
+    /**
+     * Create a token from offsets into the raw line. Values are only extracted from the line when requested.
+     *
+     * @param raw Raw line.
+     * @param tagsStart Message tags start offset, or -1 if the line has no tags.
+     * @param tagsEnd Message tags end offset.
+     * @param sourceStart Source start offset, or -1 if the line has no source.
+     * @param sourceEnd Source end offset.
+     * @param commandStart Command start offset.
+     * @param commandEnd Command end offset.
+     * @param paramOffsets Start and end offset pairs of each parameter.
+     * @param paramCount Amount of parameters.
+     */
+    ParseToken(String raw, int tagsStart, int tagsEnd, int sourceStart, int sourceEnd, int commandStart, int commandEnd, int[] paramOffsets, int paramCount) {
+        mRaw = raw;
+        mTagsStart = tagsStart;
+        mTagsEnd = tagsEnd;
+        mSourceStart = sourceStart;
+        mSourceEnd = sourceEnd;
+        mCommandStart = commandStart;
+        mCommandEnd = commandEnd;
+        mParamOffsets = paramOffsets;
+        mParamCount = paramCount;
+    }
 
     public String getRaw() {
         return mRaw;
     }
 
+    /**
+     * Check whether the line contained message tags.
+     *
+     * @return True if message tags were supplied.
+     */
+    public boolean hasTags() {
+        return mTagsStart >= 0;
+    }
+
+    /**
+     * Get the message tags, unescaping them on first access.
+     *
+     * @return Immutable map of message tags.
+     */
+    public Map<String, String> getTags() {
+        if (mTags == null) {
+            mTags = mTagsStart >= 0 ? MessageTags.parse(mRaw, mTagsStart, mTagsEnd) : Collections.emptyMap();
+        }
+        return mTags;
+    }
+
+    /**
+     * Get a single message tag without unescaping the others.
+     *
+     * @param key Tag key.
+     * @return Tag value, empty if the tag has no value, or null if the tag is not present.
+     */
+    public String getTag(String key) {
+        return mTags != null ? mTags.get(key) : MessageTags.get(mRaw, key);
+    }
+
+    /**
+     * Check whether the line contained a source prefix.
+     *
+     * @return True if a source was supplied.
+     */
+    public boolean hasSource() {
+        return mSourceStart >= 0 || mSource != null;
+    }
+
     public Source getSource() {
+        if (mSource == null && mSourceStart >= 0) {
+            mSource = mSourceCache != null ? mSourceCache.get(mRaw, mSourceStart, mSourceEnd) : new Source(mRaw.substring(mSourceStart, mSourceEnd));
+        }
         return mSource;
     }
 
+    /**
+     * Set the cache to look the source up in when first accessed.
+     *
+     * @param sourceCache Source cache.
+     */
+    void setSourceCache(SourceCache sourceCache) {
+        mSourceCache = sourceCache;
+    }
+
+    /**
+     * Set the source to use for lines without a source prefix.
+     *
+     * @param source Source of the line.
+     */
+    void setSource(Source source) {
+        mSource = source;
+    }
+
+    /**
+     * Set the command string, avoiding extraction from the raw line.
+     *
+     * @param command Command, equal to the command in the raw line.
+     */
+    void setCommand(String command) {
+        mCommand = command;
+    }
+
+    int getCommandStart() {
+        return mCommandStart;
+    }
+
+    int getCommandEnd() {
+        return mCommandEnd;
+    }
+
     public String getCommand() {
+        if (mCommand == null) {
+            mCommand = mRaw.substring(mCommandStart, mCommandEnd);
+        }
         return mCommand;
     }
 
     public String[] getParams() {
+        if (mParams == null) {
+            String[] params = new String[mParamCount];
+            for (int i = 0; i < mParamCount; i++) {
+                params[i] = mRaw.substring(mParamOffsets[i * 2], mParamOffsets[i * 2 + 1]);
+            }
+            mParams = params;
+        }
         return mParams;
     }
+
+    /**
+     * Get the amount of parameters without extracting them.
+     *
+     * @return Amount of parameters.
+     */
+    public int getParamCount() {
+        return mParamCount;
+    }
 }
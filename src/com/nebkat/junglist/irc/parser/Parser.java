@@ -22,31 +22,35 @@ package com.nebkat.junglist.irc.parser;
 import com.nebkat.junglist.irc.Log;
 import com.nebkat.junglist.irc.Session;
 import com.nebkat.junglist.irc.Source;
+import com.nebkat.junglist.irc.SourceCache;
 import com.nebkat.junglist.irc.events.irc.IRCEvent;
 import com.nebkat.junglist.irc.events.irc.UnknownIRCEvent;
+import com.nebkat.junglist.irc.parser.irc.AwayEventParser;
+import com.nebkat.junglist.irc.parser.irc.BatchEventParser;
+import com.nebkat.junglist.irc.parser.irc.CapEventParser;
 import com.nebkat.junglist.irc.parser.irc.JoinPartEventParser;
 import com.nebkat.junglist.irc.parser.irc.KickEventParser;
 import com.nebkat.junglist.irc.parser.irc.MessageEventParser;
+import com.nebkat.junglist.irc.parser.irc.ModeEventParser;
 import com.nebkat.junglist.irc.parser.irc.NickEventParser;
 import com.nebkat.junglist.irc.parser.irc.PingPongEventParser;
 import com.nebkat.junglist.irc.parser.irc.QuitEventParser;
 import com.nebkat.junglist.irc.parser.irc.TopicEventParser;
+import com.nebkat.junglist.irc.parser.irc.response.ISupportEventParser;
 import com.nebkat.junglist.irc.parser.irc.response.InviteEventParser;
+import com.nebkat.junglist.irc.parser.irc.response.IsOnEventParser;
 import com.nebkat.junglist.irc.parser.irc.response.NamesEventParser;
 import com.nebkat.junglist.irc.parser.irc.response.ResponseChannelMessageEventParser;
 import com.nebkat.junglist.irc.parser.irc.response.ResponseMessageEventParser;
 import com.nebkat.junglist.irc.parser.irc.response.ResponseTopicEventParser;
 import com.nebkat.junglist.irc.parser.irc.response.ServerInfoEventParser;
 import com.nebkat.junglist.irc.parser.irc.response.UserHostEventParser;
+import com.nebkat.junglist.irc.parser.irc.response.WhoisEventParser;
 import com.nebkat.junglist.irc.parser.irc.response.error.ErrorMessageEventParser;
 import com.nebkat.junglist.irc.parser.irc.response.error.NickErrorEventParser;
 import com.nebkat.junglist.irc.parser.irc.response.error.TargetErrorEventParser;
 import com.nebkat.junglist.irc.utils.Utils;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
-
 public abstract class Parser {
     private static final String TAG = "Parser";
 
@@ -61,10 +65,22 @@ public abstract class Parser {
     public static final String COMMAND_NICK = "NICK";
     public static final String COMMAND_INVITE = "INVITE";
     public static final String COMMAND_KICK = "KICK";
+    public static final String COMMAND_MODE = "MODE";
+    public static final String COMMAND_CAP = "CAP";
+    public static final String COMMAND_AWAY = "AWAY";
+    public static final String COMMAND_BATCH = "BATCH";
 
     public static final String RESPONSE_SERVER_CONNECTED = "001";
     public static final String RESPONSE_SERVER_INFO = "004";
+    public static final String RESPONSE_ISUPPORT = "005";
     public static final String RESPONSE_USER_HOST = "302";
+    public static final String RESPONSE_IS_ON = "303";
+    public static final String RESPONSE_WHOIS_USER = "311";
+    public static final String RESPONSE_WHOIS_SERVER = "312";
+    public static final String RESPONSE_WHOIS_IDLE = "317";
+    public static final String RESPONSE_WHOIS_END = "318";
+    public static final String RESPONSE_WHOIS_CHANNELS = "319";
+    public static final String RESPONSE_WHOIS_ACCOUNT = "330";
     public static final String RESPONSE_MOTD_START = "375";
     public static final String RESPONSE_MOTD_CONTENT = "372";
     public static final String RESPONSE_MOTD_END = "376";
@@ -93,7 +109,16 @@ public abstract class Parser {
     public static final String ERROR_NOT_ON_CHANNEL = "442";
     public static final String ERROR_WRONG_PASSWORD = "464";
 
-    private static final Map<String, Parser> sParsers = new HashMap<>();
+    /**
+     * Numeric response parsers, indexed by numeric value
+     */
+    private static final Parser[] sNumericParsers = new Parser[1000];
+    private static final String[] sNumericCommands = new String[1000];
+
+    /**
+     * Alphabetic command parsers, indexed by first letter
+     */
+    private static final CommandParser[][] sCommandParsers = new CommandParser[26][0];
 
     static {
         /**
@@ -101,130 +126,233 @@ public abstract class Parser {
          */
         // Ping and pong events
         PingPongEventParser pingPongEventParser = new PingPongEventParser();
-        sParsers.put(COMMAND_PING, pingPongEventParser);
-        sParsers.put(COMMAND_PONG, pingPongEventParser);
+        register(COMMAND_PING, pingPongEventParser);
+        register(COMMAND_PONG, pingPongEventParser);
 
         // Message (privmsg and notice) events
         MessageEventParser messageEventParser = new MessageEventParser();
-        sParsers.put(COMMAND_PRIVMSG, messageEventParser);
-        sParsers.put(COMMAND_NOTICE, messageEventParser);
+        register(COMMAND_PRIVMSG, messageEventParser);
+        register(COMMAND_NOTICE, messageEventParser);
 
         // Join and part events
         JoinPartEventParser joinPartEventParser = new JoinPartEventParser();
-        sParsers.put(COMMAND_JOIN, joinPartEventParser);
-        sParsers.put(COMMAND_PART, joinPartEventParser);
+        register(COMMAND_JOIN, joinPartEventParser);
+        register(COMMAND_PART, joinPartEventParser);
 
         // Quit event
-        sParsers.put(COMMAND_QUIT, new QuitEventParser());
+        register(COMMAND_QUIT, new QuitEventParser());
 
         // Topic event
-        sParsers.put(COMMAND_TOPIC, new TopicEventParser());
+        register(COMMAND_TOPIC, new TopicEventParser());
 
         // Nick event
-        sParsers.put(COMMAND_NICK, new NickEventParser());
+        register(COMMAND_NICK, new NickEventParser());
 
         // Invite event
-        sParsers.put(COMMAND_INVITE, new InviteEventParser());
+        register(COMMAND_INVITE, new InviteEventParser());
 
         // Kick event
-        sParsers.put(COMMAND_KICK, new KickEventParser());
+        register(COMMAND_KICK, new KickEventParser());
+
+        // Mode event
+        register(COMMAND_MODE, new ModeEventParser());
+
+        // Capability negotiation event
+        register(COMMAND_CAP, new CapEventParser());
+
+        // Away event
+        register(COMMAND_AWAY, new AwayEventParser());
+
+        // Batch event
+        register(COMMAND_BATCH, new BatchEventParser());
 
         /**
          * Responses
          */
         // Simple message responses
         ResponseMessageEventParser responseMessageEventParser = new ResponseMessageEventParser();
-        sParsers.put(RESPONSE_SERVER_CONNECTED, responseMessageEventParser);
-        sParsers.put(RESPONSE_MOTD_START, responseMessageEventParser);
-        sParsers.put(RESPONSE_MOTD_CONTENT, responseMessageEventParser);
-        sParsers.put(RESPONSE_MOTD_END, responseMessageEventParser);
+        register(RESPONSE_SERVER_CONNECTED, responseMessageEventParser);
+        register(RESPONSE_MOTD_START, responseMessageEventParser);
+        register(RESPONSE_MOTD_CONTENT, responseMessageEventParser);
+        register(RESPONSE_MOTD_END, responseMessageEventParser);
 
         // Server info event
-        sParsers.put(RESPONSE_SERVER_INFO, new ServerInfoEventParser());
+        register(RESPONSE_SERVER_INFO, new ServerInfoEventParser());
+
+        // Server features event
+        register(RESPONSE_ISUPPORT, new ISupportEventParser());
 
         // Topic events
         ResponseTopicEventParser responseTopicEventParser = new ResponseTopicEventParser();
-        sParsers.put(RESPONSE_TOPIC_NONE, responseTopicEventParser);
-        sParsers.put(RESPONSE_TOPIC_MESSAGE, responseTopicEventParser);
-        sParsers.put(RESPONSE_TOPIC_SETBY, responseTopicEventParser);
+        register(RESPONSE_TOPIC_NONE, responseTopicEventParser);
+        register(RESPONSE_TOPIC_MESSAGE, responseTopicEventParser);
+        register(RESPONSE_TOPIC_SETBY, responseTopicEventParser);
 
         // User host event
-        sParsers.put(RESPONSE_USER_HOST, new UserHostEventParser());
+        register(RESPONSE_USER_HOST, new UserHostEventParser());
+
+        // Is on event
+        register(RESPONSE_IS_ON, new IsOnEventParser());
+
+        // Whois events
+        WhoisEventParser whoisEventParser = new WhoisEventParser();
+        register(RESPONSE_WHOIS_USER, whoisEventParser);
+        register(RESPONSE_WHOIS_SERVER, whoisEventParser);
+        register(RESPONSE_WHOIS_IDLE, whoisEventParser);
+        register(RESPONSE_WHOIS_END, whoisEventParser);
+        register(RESPONSE_WHOIS_CHANNELS, whoisEventParser);
+        register(RESPONSE_WHOIS_ACCOUNT, whoisEventParser);
 
         // Channel names list event
         NamesEventParser namesEventParser = new NamesEventParser();
-        sParsers.put(RESPONSE_NAMES_LIST, namesEventParser);
-        sParsers.put(RESPONSE_NAMES_END, namesEventParser);
+        register(RESPONSE_NAMES_LIST, namesEventParser);
+        register(RESPONSE_NAMES_END, namesEventParser);
 
         // Channel message events
         ResponseChannelMessageEventParser responseChannelMessageEventParser = new ResponseChannelMessageEventParser();
-        sParsers.put(RESPONSE_CHANNEL_URL, responseChannelMessageEventParser);
+        register(RESPONSE_CHANNEL_URL, responseChannelMessageEventParser);
 
         /**
          * Errors
          */
         // Simple message errors
         ErrorMessageEventParser errorMessageEventParser = new ErrorMessageEventParser();
-        sParsers.put(ERROR_NO_ORIGIN, errorMessageEventParser);
-        sParsers.put(ERROR_NO_RECIPIENT, errorMessageEventParser);
-        sParsers.put(ERROR_NO_TEXT_TO_SEND, errorMessageEventParser);
-        sParsers.put(ERROR_NO_MOTD, errorMessageEventParser);
-        sParsers.put(ERROR_NO_NICK_GIVEN, errorMessageEventParser);
+        register(ERROR_NO_ORIGIN, errorMessageEventParser);
+        register(ERROR_NO_RECIPIENT, errorMessageEventParser);
+        register(ERROR_NO_TEXT_TO_SEND, errorMessageEventParser);
+        register(ERROR_NO_MOTD, errorMessageEventParser);
+        register(ERROR_NO_NICK_GIVEN, errorMessageEventParser);
 
         // No such target errors
         TargetErrorEventParser targetErrorEventParser = new TargetErrorEventParser();
-        sParsers.put(ERROR_NO_SUCH_NICK, targetErrorEventParser);
-        sParsers.put(ERROR_NO_SUCH_SERVER, targetErrorEventParser);
-        sParsers.put(ERROR_NO_SUCH_CHANNEL, targetErrorEventParser);
-        sParsers.put(ERROR_NOT_ON_CHANNEL, targetErrorEventParser);
+        register(ERROR_NO_SUCH_NICK, targetErrorEventParser);
+        register(ERROR_NO_SUCH_SERVER, targetErrorEventParser);
+        register(ERROR_NO_SUCH_CHANNEL, targetErrorEventParser);
+        register(ERROR_NOT_ON_CHANNEL, targetErrorEventParser);
 
 
         // Nick errors
         NickErrorEventParser nickErrorEventParser = new NickErrorEventParser();
-        sParsers.put(ERROR_NICK_IN_USE, nickErrorEventParser);
-        sParsers.put(ERROR_NICK_INVALID, nickErrorEventParser);
+        register(ERROR_NICK_IN_USE, nickErrorEventParser);
+        register(ERROR_NICK_INVALID, nickErrorEventParser);
     }
 
     public static IRCEvent parse(Session session, String line) {
-        // Split at the last ":" (message character) when spaces are part of the parameter
-        String[] parts = Utils.splitUntilOccurenceAfterOccurence(line, " ", ":", 1, " ", line.startsWith(":") ? 1 : 0);
-
         // Event time
         long time = System.currentTimeMillis();
 
         // All messages must at least contain the command parameter
-        if (parts.length < 1 || (parts[0].startsWith(":") && parts.length < 2)) {
+        ParseToken token = Tokenizer.tokenize(line);
+        if (token == null) {
             Log.w(TAG, "Line too short: " + line);
             return new UnknownIRCEvent(time, session, line, new Source(session.getServerHost() != null ? session.getServerHost() : session.getServer()));
         }
 
-        // Use server host as source of message if source is not supplied
-        if (!parts[0].startsWith(":")) {
-            String[] modifiedParts = new String[parts.length + 1];
-            System.arraycopy(parts, 0, modifiedParts, 1, parts.length);
-            modifiedParts[0] = session.getServerHost() != null ? session.getServerHost() : session.getServer();
-            parts = modifiedParts;
+        // Time the server received the line, if sent
+        if (token.hasTags()) {
+            String serverTime = token.getTag("time");
+            if (serverTime != null) {
+                long parsedTime = Utils.parseServerTime(serverTime);
+                if (parsedTime != -1) {
+                    time = parsedTime;
+                }
+            }
         }
 
-        String source = parts[0].replaceAll("^:", "");
-        String command = parts[1];
-        String[] params = Arrays.copyOfRange(parts, 2, parts.length);
-
-        ParseToken token = new ParseToken(line, new Source(source), command, params);
+        // Use server host as source of message if source is not supplied
+        SourceCache sourceCache = session.getSourceCache();
+        if (!token.hasSource()) {
+            token.setSource(sourceCache.get(session.getServerHost() != null ? session.getServerHost() : session.getServer()));
+        } else {
+            token.setSourceCache(sourceCache);
+        }
 
-        IRCEvent e;
-        if (sParsers.containsKey(command)) {
-            e = sParsers.get(command).parse(time, session, token);
+        Parser parser = lookup(token);
+        if (parser != null) {
+            IRCEvent e = parser.parse(time, session, token);
             if (e != null) {
                 return e;
             } else {
                 Log.e(TAG, "Error parsing line: " + line);
             }
         } else {
-            Log.d(TAG, "No parser for command: " + command);
+            Log.d(TAG, "No parser for command: " + token.getCommand());
+        }
+        return new UnknownIRCEvent(time, session, line, token.getSource());
+    }
+
+    /**
+     * Resolve the parser for a token directly from the command characters of the raw line.
+     *
+     * Numerics are resolved by value and commands by first letter and length, avoiding hashing and substrings. The
+     * token command is set to the registered command string.
+     *
+     * @param token Token to resolve the parser for.
+     * @return Parser, or null if the command is not supported.
+     */
+    private static Parser lookup(ParseToken token) {
+        int start = token.getCommandStart();
+        if (start < 0) {
+            return null;
+        }
+        String raw = token.getRaw();
+        int length = token.getCommandEnd() - start;
+
+        char first = raw.charAt(start);
+        if (length == 3 && isDigit(first) && isDigit(raw.charAt(start + 1)) && isDigit(raw.charAt(start + 2))) {
+            int numeric = (first - '0') * 100 + (raw.charAt(start + 1) - '0') * 10 + (raw.charAt(start + 2) - '0');
+            if (sNumericParsers[numeric] != null) {
+                token.setCommand(sNumericCommands[numeric]);
+            }
+            return sNumericParsers[numeric];
+        }
+
+        if (first < 'A' || first > 'Z') {
+            return null;
+        }
+        for (CommandParser commandParser : sCommandParsers[first - 'A']) {
+            String command = commandParser.mCommand;
+            if (command.length() == length && raw.regionMatches(start, command, 0, length)) {
+                token.setCommand(command);
+                return commandParser.mParser;
+            }
+        }
+        return null;
+    }
+
+    private static void register(String command, Parser parser) {
+        int length = command.length();
+        if (length == 3 && isDigit(command.charAt(0)) && isDigit(command.charAt(1)) && isDigit(command.charAt(2))) {
+            int numeric = Integer.parseInt(command);
+            sNumericParsers[numeric] = parser;
+            sNumericCommands[numeric] = command;
+            return;
+        }
+
+        int index = command.charAt(0) - 'A';
+        if (index < 0 || index >= sCommandParsers.length) {
+            throw new IllegalArgumentException("Command must start with an upper case letter: " + command);
         }
-        return new UnknownIRCEvent(time, session, line, new Source(source));
+        CommandParser[] bucket = sCommandParsers[index];
+        CommandParser[] grown = new CommandParser[bucket.length + 1];
+        System.arraycopy(bucket, 0, grown, 0, bucket.length);
+        grown[bucket.length] = new CommandParser(command, parser);
+        sCommandParsers[index] = grown;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
     public abstract IRCEvent parse(long time, Session session, ParseToken token);
+
+    private static class CommandParser {
+        private final String mCommand;
+        private final Parser mParser;
+
+        private CommandParser(String command, Parser parser) {
+            mCommand = command;
+            mParser = parser;
+        }
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.parser;
+
+/**
+ * Single pass RFC 1459 line tokenizer
+ *
+ * Records the offsets of the IRCv3 message tags, source, command and parameters in one scan of the line.
+ */
+public class Tokenizer {
+    private static final int DEFAULT_PARAMS = 15;
+
+    /**
+     * Tokenize a raw line.
+     *
+     * @param line Raw line, without line ending.
+     * @return Token, or null if the line does not contain a command.
+     */
+    public static ParseToken tokenize(String line) {
+        int length = line.length();
+        int i = 0;
+
+        // Message tags
+        int tagsStart = -1;
+        int tagsEnd = -1;
+        if (i < length && line.charAt(i) == '@') {
+            tagsStart = i + 1;
+            tagsEnd = line.indexOf(' ', tagsStart);
+            if (tagsEnd == -1) {
+                return null;
+            }
+            i = skipSpaces(line, tagsEnd, length);
+        }
+
+        // Source
+        int sourceStart = -1;
+        int sourceEnd = -1;
+        if (i < length && line.charAt(i) == ':') {
+            sourceStart = i + 1;
+            sourceEnd = line.indexOf(' ', sourceStart);
+            if (sourceEnd == -1) {
+                return null;
+            }
+            i = skipSpaces(line, sourceEnd, length);
+        }
+
+        // Command
+        int commandStart = i;
+        int commandEnd = line.indexOf(' ', i);
+        if (commandEnd == -1) {
+            commandEnd = length;
+        }
+        if (commandStart == commandEnd) {
+            return null;
+        }
+        i = commandEnd;
+
+        // Parameters, the last of which may contain spaces when prefixed by ':'
+        int[] params = new int[DEFAULT_PARAMS * 2];
+        int count = 0;
+        while ((i = skipSpaces(line, i, length)) < length) {
+            if (count * 2 == params.length) {
+                int[] grown = new int[params.length * 2];
+                System.arraycopy(params, 0, grown, 0, params.length);
+                params = grown;
+            }
+            if (line.charAt(i) == ':') {
+                params[count * 2] = i + 1;
+                params[count * 2 + 1] = length;
+                count++;
+                break;
+            }
+            int end = line.indexOf(' ', i);
+            if (end == -1) {
+                end = length;
+            }
+            params[count * 2] = i;
+            params[count * 2 + 1] = end;
+            count++;
+            i = end;
+        }
+
+        return new ParseToken(line, tagsStart, tagsEnd, sourceStart, sourceEnd, commandStart, commandEnd, params, count);
+    }
+
+    private static int skipSpaces(String line, int i, int length) {
+        while (i < length && line.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+}
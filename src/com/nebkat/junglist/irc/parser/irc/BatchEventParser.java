@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.parser.irc;
+
+import com.nebkat.junglist.irc.Session;
+import com.nebkat.junglist.irc.events.irc.BatchEvent;
+import com.nebkat.junglist.irc.events.irc.IRCEvent;
+import com.nebkat.junglist.irc.parser.ParseToken;
+import com.nebkat.junglist.irc.parser.Parser;
+
+import java.util.Arrays;
+
+public class BatchEventParser extends Parser {
+    @Override
+    public IRCEvent parse(long time, Session session, ParseToken token) {
+        // +<reference> <type> [<parameters>] or -<reference>
+        String[] params = token.getParams();
+        if (params.length < 1 || params[0].length() < 2) {
+            return null;
+        }
+
+        String reference = params[0].substring(1);
+        if (params[0].charAt(0) == '+') {
+            if (params.length < 2) {
+                return null;
+            }
+            String[] parameters = Arrays.copyOfRange(params, 2, params.length);
+            return new BatchEvent(time, session, token.getRaw(), token.getSource(), reference, true, params[1], parameters);
+        } else if (params[0].charAt(0) == '-') {
+            return new BatchEvent(time, session, token.getRaw(), token.getSource(), reference, false, null, new String[0]);
+        } else {
+            return null;
+        }
+    }
+}
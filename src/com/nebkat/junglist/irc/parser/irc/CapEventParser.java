@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.parser.irc;
+
+import com.nebkat.junglist.irc.Session;
+import com.nebkat.junglist.irc.events.irc.CapEvent;
+import com.nebkat.junglist.irc.events.irc.IRCEvent;
+import com.nebkat.junglist.irc.parser.ParseToken;
+import com.nebkat.junglist.irc.parser.Parser;
+import com.nebkat.junglist.irc.utils.Utils;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class CapEventParser extends Parser {
+    @Override
+    public IRCEvent parse(long time, Session session, ParseToken token) {
+        // <nick> <subcommand> [*] [:<capabilities>]
+        String[] params = token.getParams();
+        if (params.length < 2) {
+            return null;
+        }
+
+        String subcommand = params[1];
+        boolean continued = params.length > 3 && params[2].equals("*");
+        String list = params.length > 2 ? params[params.length - 1] : "";
+        Map<String, String> capabilities = new LinkedHashMap<>();
+        for (String capability : Utils.splitSpaces(list)) {
+            int equals = capability.indexOf('=');
+            if (equals == -1) {
+                capabilities.put(capability, "");
+            } else {
+                capabilities.put(capability.substring(0, equals), capability.substring(equals + 1));
+            }
+        }
+        return new CapEvent(time, session, token.getRaw(), token.getSource(), subcommand, Collections.unmodifiableMap(capabilities), continued);
+    }
+}
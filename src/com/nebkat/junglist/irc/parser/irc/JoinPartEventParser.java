@@ -41,6 +41,11 @@ public class JoinPartEventParser extends Parser {
         Channel target = (Channel) session.getOrInitiateTarget(channel);
 
         if (token.getCommand().equals(Parser.COMMAND_JOIN)) {
+            if (token.getParams().length >= 3) {
+                // Extended join, '*' if not logged in
+                String account = token.getParams()[1];
+                return new JoinEvent(time, session, token.getRaw(), user, target, account.equals("*") ? null : account, token.getParams()[2]);
+            }
             return new JoinEvent(time, session, token.getRaw(), user, target);
         } else if (token.getCommand().equals(Parser.COMMAND_PART)) {
             String message = Utils.indexOrDefault(token.getParams(), 1, null);
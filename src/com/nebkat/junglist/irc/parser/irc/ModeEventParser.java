@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.parser.irc;
+
+import com.nebkat.junglist.irc.ISupport;
+import com.nebkat.junglist.irc.Session;
+import com.nebkat.junglist.irc.Target;
+import com.nebkat.junglist.irc.events.irc.IRCEvent;
+import com.nebkat.junglist.irc.events.irc.ModeChange;
+import com.nebkat.junglist.irc.events.irc.ModeEvent;
+import com.nebkat.junglist.irc.parser.ParseToken;
+import com.nebkat.junglist.irc.parser.Parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ModeEventParser extends Parser {
+    @Override
+    public IRCEvent parse(long time, Session session, ParseToken token) {
+        String[] params = token.getParams();
+        if (params.length < 2) {
+            return null;
+        }
+
+        ISupport iSupport = session.getISupport();
+        boolean channel = iSupport.isChannel(params[0]);
+        // User modes are only ever sent for our own nick, which is not kept as a target
+        Target target = channel ? session.getOrInitiateTarget(params[0]) : new Target(session, params[0]);
+
+        List<ModeChange> changes = new ArrayList<>();
+        String modes = params[1];
+        int parameter = 2;
+        boolean adding = true;
+        for (int i = 0; i < modes.length(); i++) {
+            char mode = modes.charAt(i);
+            if (mode == '+' || mode == '-') {
+                adding = mode == '+';
+                continue;
+            }
+            // User modes never take parameters, channel modes depend on their CHANMODES type
+            String value = null;
+            if (channel && takesParameter(iSupport.getModeType(mode), adding) && parameter < params.length) {
+                value = params[parameter++];
+            }
+            changes.add(new ModeChange(adding, mode, value));
+        }
+
+        StringBuilder builder = new StringBuilder(modes);
+        for (int i = 2; i < params.length; i++) {
+            builder.append(' ').append(params[i]);
+        }
+
+        return new ModeEvent(time, session, token.getRaw(), token.getSource(), target, builder.toString(), changes);
+    }
+
+    private static boolean takesParameter(ISupport.ModeType type, boolean adding) {
+        if (type == null) {
+            return false;
+        }
+        switch (type) {
+            case LIST:
+            case PARAMETER:
+            case PREFIX:
+                return true;
+            case PARAMETER_WHEN_SET:
+                return adding;
+            default:
+                return false;
+        }
+    }
+}
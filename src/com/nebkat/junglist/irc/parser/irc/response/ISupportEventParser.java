@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.parser.irc.response;
+
+import com.nebkat.junglist.irc.ISupport;
+import com.nebkat.junglist.irc.Session;
+import com.nebkat.junglist.irc.events.irc.IRCEvent;
+import com.nebkat.junglist.irc.events.irc.response.ISupportEvent;
+import com.nebkat.junglist.irc.parser.ParseToken;
+import com.nebkat.junglist.irc.parser.Parser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ISupportEventParser extends Parser {
+    @Override
+    public IRCEvent parse(long time, Session session, ParseToken token) {
+        String[] params = token.getParams();
+        if (params.length < 2) {
+            return null;
+        }
+
+        // Tokens follow the nick, the last parameter is a description if it contains spaces
+        int end = params[params.length - 1].indexOf(' ') != -1 ? params.length - 1 : params.length;
+        Map<String, String> tokens = new LinkedHashMap<>();
+        for (int i = 1; i < end; i++) {
+            String param = params[i];
+            if (param.isEmpty()) {
+                continue;
+            }
+            if (param.charAt(0) == '-') {
+                tokens.put(param.substring(1), null);
+                continue;
+            }
+            int equals = param.indexOf('=');
+            if (equals == -1) {
+                tokens.put(param, "");
+            } else {
+                tokens.put(param.substring(0, equals), ISupport.unescape(param.substring(equals + 1)));
+            }
+        }
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        return new ISupportEvent(time, session, token.getRaw(), token.getSource(), tokens);
+    }
+}
@@ -35,19 +35,26 @@ public class NamesEventParser extends Parser {
         }
 
         if (token.getCommand().equals(Parser.RESPONSE_NAMES_END)) {
-            String channel = token.getParams()[1];
-            Channel target = (Channel) session.getOrInitiateTarget(channel);
+            Channel target = getChannel(session, token.getParams()[1]);
             return new NamesEndEvent(time, session, token.getRaw(), token.getSource(), target);
         } else if (token.getCommand().equals(Parser.RESPONSE_NAMES_LIST)) {
             if (token.getParams().length < 4) {
                 return null;
             }
-            String channel = token.getParams()[2];
-            Channel target = (Channel) session.getOrInitiateTarget(channel);
+            Channel target = getChannel(session, token.getParams()[2]);
             String[] list = token.getParams()[3].split(" ");
             return new NamesListEvent(time, session, token.getRaw(), token.getSource(), target, list);
         } else {
             return null;
         }
     }
+
+    private static Channel getChannel(Session session, String channel) {
+        Channel target = session.getChannel(channel);
+        // Replies for channels we are not in get a detached channel, so the session does not start tracking it
+        if (target == null || !session.isJoined(target)) {
+            target = new Channel(session, channel);
+        }
+        return target;
+    }
 }
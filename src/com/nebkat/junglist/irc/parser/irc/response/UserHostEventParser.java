@@ -25,6 +25,9 @@ import com.nebkat.junglist.irc.events.irc.IRCEvent;
 import com.nebkat.junglist.irc.events.irc.response.UserHostEvent;
 import com.nebkat.junglist.irc.parser.ParseToken;
 import com.nebkat.junglist.irc.parser.Parser;
+import com.nebkat.junglist.irc.utils.Utils;
+
+import java.util.Arrays;
 
 public class UserHostEventParser extends Parser {
     @Override
@@ -33,23 +36,29 @@ public class UserHostEventParser extends Parser {
             return null;
         }
 
-        // TODO return multiple
-        String[] infos = token.getParams()[1].split(" ")[0].split(" ");
+        // nick['*']'='('+'|'-')user@host, separated by spaces
+        String reply = token.getParams()[1].trim();
+        String[] infos = Utils.splitSpaces(reply);
         String[] nicks = new String[infos.length];
         Source[] hosts = new Source[infos.length];
-        for (int i = 0; i < infos.length; i++) {
-            String[] info = infos[i].split("=");
-            if (info.length < 2) {
+        int count = 0;
+        for (String info : infos) {
+            int equals = info.indexOf('=');
+            if (equals <= 0 || equals + 1 >= info.length()) {
                 continue;
             }
-            String nick = info[0];
-            String host = info[1].replaceAll("^(\\+|\\-)", "");
-            Source parsedData = new Source(nick + "!" + host);
-            nicks[i] = nick;
-            hosts[i] = parsedData;
+            // Operators are marked with '*'
+            String nick = info.substring(0, info.charAt(equals - 1) == '*' && equals > 1 ? equals - 1 : equals);
+            // Away status
+            int hostStart = info.charAt(equals + 1) == '+' || info.charAt(equals + 1) == '-' ? equals + 2 : equals + 1;
+            nicks[count] = nick;
+            hosts[count] = new Source(nick + "!" + info.substring(hostStart));
+            count++;
+        }
+        if (count < infos.length) {
+            nicks = Arrays.copyOf(nicks, count);
+            hosts = Arrays.copyOf(hosts, count);
         }
-
-
 
         if (token.getCommand().equals(Parser.RESPONSE_USER_HOST)) {
             return new UserHostEvent(time, session, token.getRaw(), token.getSource(), nicks, hosts);
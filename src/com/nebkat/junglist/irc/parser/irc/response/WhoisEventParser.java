@@ -0,0 +1,89 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.parser.irc.response;
+
+import com.nebkat.junglist.irc.Session;
+import com.nebkat.junglist.irc.events.irc.IRCEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisAccountEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisChannelsEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisEndEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisIdleEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisServerEvent;
+import com.nebkat.junglist.irc.events.irc.response.WhoisUserEvent;
+import com.nebkat.junglist.irc.parser.ParseToken;
+import com.nebkat.junglist.irc.parser.Parser;
+import com.nebkat.junglist.irc.utils.Utils;
+
+public class WhoisEventParser extends Parser {
+    @Override
+    public IRCEvent parse(long time, Session session, ParseToken token) {
+        String[] params = token.getParams();
+        if (params.length < 2) {
+            return null;
+        }
+
+        String nick = params[1];
+        if (token.getCommand().equals(Parser.RESPONSE_WHOIS_USER)) {
+            // <me> <nick> <user> <host> * :<realname>
+            if (params.length < 4) {
+                return null;
+            }
+            String realname = Utils.indexOrDefault(params, 5, null);
+            return new WhoisUserEvent(time, session, token.getRaw(), token.getSource(), nick, params[2], params[3], realname);
+        } else if (token.getCommand().equals(Parser.RESPONSE_WHOIS_SERVER)) {
+            // <me> <nick> <server> :<server info>
+            if (params.length < 3) {
+                return null;
+            }
+            String serverInfo = Utils.indexOrDefault(params, 3, null);
+            return new WhoisServerEvent(time, session, token.getRaw(), token.getSource(), nick, params[2], serverInfo);
+        } else if (token.getCommand().equals(Parser.RESPONSE_WHOIS_IDLE)) {
+            // <me> <nick> <idle> [<signon>] :seconds idle[, signon time]
+            if (params.length < 3) {
+                return null;
+            }
+            try {
+                long idle = Long.parseLong(params[2]);
+                long signOn = params.length > 4 ? Long.parseLong(params[3]) : 0;
+                return new WhoisIdleEvent(time, session, token.getRaw(), token.getSource(), nick, idle, signOn);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        } else if (token.getCommand().equals(Parser.RESPONSE_WHOIS_CHANNELS)) {
+            // <me> <nick> :{[prefixes]<channel> }
+            if (params.length < 3) {
+                return null;
+            }
+            String channels = params[2].trim();
+            return new WhoisChannelsEvent(time, session, token.getRaw(), token.getSource(), nick,
+                    Utils.splitSpaces(channels));
+        } else if (token.getCommand().equals(Parser.RESPONSE_WHOIS_ACCOUNT)) {
+            // <me> <nick> <account> :is logged in as
+            if (params.length < 3) {
+                return null;
+            }
+            return new WhoisAccountEvent(time, session, token.getRaw(), token.getSource(), nick, params[2]);
+        } else if (token.getCommand().equals(Parser.RESPONSE_WHOIS_END)) {
+            return new WhoisEndEvent(time, session, token.getRaw(), token.getSource(), nick);
+        } else {
+            return null;
+        }
+    }
+}
@@ -19,81 +19,29 @@
 
 package com.nebkat.junglist.irc.utils;
 
-import java.io.IOException;
 import java.io.OutputStream;
-import java.io.Writer;
 
 /**
  * Flood protected queued output writer
  */
 public class FloodProtectedOutputThread extends OutputThread {
-    private long[] mLastTimestamps;
-    private int mCurrentDelay;
-    private boolean mInDelay;
-    private long mCoolDown;
-
-    /**
-     * Minimum delay between two writes, in ms
-     */
-    private int mMinDelay;
-
-    /**
-     * Maximum delay between two writes, in ms
-     */
-    private int mMaxDelay;
-
-    /**
-     * How many lines per second are required for the flood protection to start
-     */
-    private int mMaxLinesPerSecond;
-
-    /**
-     * By how many ms to increase the flood protection, up to mMaxDelay
-     */
-    private int mDelayIncreaseStep;
-
-    /**
-     * How many ms to wait before disabling flood protection
-     */
-    private int mCoolDownPeriod;
+    private final RateLimiter mRateLimiter;
 
     public FloodProtectedOutputThread(OutputStream output, Callback callback, int minDelay, int maxDelay, int maxLinesPerSecond, int delayIncreaseStep, int coolDownPeriod) {
-        super(output, callback);
-        setName(FloodProtectedOutputThread.class.getSimpleName() + getId());
-        mMinDelay = minDelay;
-        mMaxDelay = maxDelay;
-        mMaxLinesPerSecond = maxLinesPerSecond;
-        mDelayIncreaseStep = delayIncreaseStep;
-        mCoolDownPeriod = coolDownPeriod;
-
-        mLastTimestamps = new long[mMaxLinesPerSecond + 1];
-        mLastTimestamps[mMaxLinesPerSecond] = System.currentTimeMillis();
+        this(output, callback, new FloodProtection(minDelay, maxDelay, maxLinesPerSecond, delayIncreaseStep, coolDownPeriod));
+    }
 
-        mCurrentDelay = mMinDelay;
+    public FloodProtectedOutputThread(OutputStream output, Callback callback, RateLimiter rateLimiter) {
+        this(output, callback, rateLimiter, new OutboundQueue());
     }
 
+    public FloodProtectedOutputThread(OutputStream output, Callback callback, RateLimiter rateLimiter, OutboundQueue queue) {
+        super(output, callback, DEFAULT_ENCODING, queue);
+        mRateLimiter = rateLimiter;
+    }
 
     @Override
-    protected void process(Writer writer) throws InterruptedException, IOException {
-        String line;
-        while (!isInterrupted() && (line = mWriteQueue.take()) != null) {
-            System.arraycopy(mLastTimestamps, 1, mLastTimestamps, 0, mMaxLinesPerSecond);
-            mLastTimestamps[mMaxLinesPerSecond] = System.currentTimeMillis();
-
-            long firstLastDifference = mLastTimestamps[mMaxLinesPerSecond] - mLastTimestamps[0];
-            if (firstLastDifference < 1000) {
-                mCurrentDelay = Math.max(mMinDelay, Math.min(mMaxDelay, mCurrentDelay + mDelayIncreaseStep));
-                mInDelay = true;
-                mCoolDown = System.currentTimeMillis();
-            } else if (mInDelay && System.currentTimeMillis() - mCoolDown > mCoolDownPeriod) {
-                mInDelay = false;
-            }
-            if (mInDelay) {
-                sleep(mCurrentDelay);
-            }
-
-            writer.write(line + "\r\n");
-            writer.flush();
-        }
+    protected long nextDelay(String line) {
+        return mRateLimiter.acquire(Utils.utf8Length(line) + 2);
     }
 }
@@ -21,13 +21,13 @@ package com.nebkat.junglist.irc.utils;
 
 import com.nebkat.junglist.irc.Log;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 
-public class InputThread extends Thread {
+public class InputThread extends StreamThread {
     private static final String TAG = "InputThread";
     public static final String DEFAULT_ENCODING = "UTF-8";
 
@@ -35,13 +35,14 @@ public class InputThread extends Thread {
     protected String mEncoding;
     protected Callback mCallback;
 
+    private LineFramer mFramer;
+    private int mMaxLineLength = LineFramer.MAX_LINE_LENGTH;
+
     public InputThread(InputStream input, Callback callback) {
         this(input, callback, DEFAULT_ENCODING);
     }
 
     public InputThread(InputStream input, Callback callback, String encoding) {
-        super();
-        setName(InputThread.class.getSimpleName() + getId());
         mStream = input;
         mEncoding = encoding;
         mCallback = callback;
@@ -49,12 +50,17 @@ public class InputThread extends Thread {
 
     @Override
     public void run() {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(mStream, mEncoding))) {
-            process(reader);
-        } catch (UnsupportedEncodingException e) {
+        try (InputStream stream = mStream) {
+            LineFramer framer = new LineFramer(Charset.forName(mEncoding));
+            framer.setMaxLineLength(mMaxLineLength);
+            mFramer = framer;
+            process(stream, framer);
+        } catch (UnsupportedCharsetException | IllegalCharsetNameException e) {
             Log.wtf(TAG, mEncoding + " encoding not supported", e);
         } catch (IOException e) {
             // Ignore
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Closing session after unexpected error", e);
         }
 
         if (!isInterrupted()) {
@@ -62,13 +68,28 @@ public class InputThread extends Thread {
         }
     }
 
+    /**
+     * Set the maximum length of lines read. Must be called before the thread is started or from the
+     * {@link Callback} while reading.
+     *
+     * @param maxLineLength Maximum line length, see {@link LineFramer#setMaxLineLength(int)}.
+     */
+    public void setMaxLineLength(int maxLineLength) {
+        mMaxLineLength = maxLineLength;
+        if (mFramer != null) {
+            mFramer.setMaxLineLength(maxLineLength);
+        }
+    }
+
     /**
      * Move stream processing to helper class for easier extension
      */
-    protected void process(BufferedReader reader) throws IOException {
-        String line;
-        while (!isInterrupted() && (line = reader.readLine()) != null) {
-            mCallback.onLineRead(line);
+    protected void process(InputStream stream, LineFramer framer) throws IOException {
+        while (!isInterrupted() && framer.read(stream) != -1) {
+            String line;
+            while (!isInterrupted() && (line = framer.next()) != null) {
+                mCallback.onLineRead(line);
+            }
         }
     }
 
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte level IRC line encoder
+ *
+ * Counterpart of {@link LineFramer} for writing. Lines are encoded with their line ending directly into a reusable send
+ * buffer, so several queued lines can be written with a single flush without creating intermediate strings or arrays.
+ */
+public class LineEncoder {
+    /**
+     * Amount of buffered bytes after which no further lines should be added before flushing
+     */
+    public static final int MAX_BATCH_SIZE = 8192;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final String LINE_ENDING = "\r\n";
+
+    private ByteBuffer mBuffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private final boolean mUtf8;
+    private final CharsetEncoder mEncoder;
+
+    private int mLines;
+
+    private volatile long mFlushes;
+    private volatile long mFlushedLines;
+
+    public LineEncoder(Charset charset) {
+        mUtf8 = charset.equals(StandardCharsets.UTF_8);
+        mEncoder = mUtf8 ? null : charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Encode a line followed by a line ending.
+     *
+     * @param line Line to encode, without line ending.
+     */
+    public void append(String line) {
+        if (mUtf8) {
+            appendUtf8(line);
+            ensureCapacity(2);
+            mBuffer.put((byte) '\r').put((byte) '\n');
+        } else {
+            appendEncoded(CharBuffer.wrap(line));
+            appendEncoded(CharBuffer.wrap(LINE_ENDING));
+        }
+        mLines++;
+    }
+
+    private void appendUtf8(String line) {
+        int length = line.length();
+        ensureCapacity(length * 3);
+        byte[] array = mBuffer.array();
+        int position = mBuffer.arrayOffset() + mBuffer.position();
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c < 0x80) {
+                array[position++] = (byte) c;
+            } else if (c < 0x800) {
+                array[position++] = (byte) (0xc0 | (c >> 6));
+                array[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                int codePoint;
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(line.charAt(i + 1))) {
+                    codePoint = Character.toCodePoint(c, line.charAt(++i));
+                } else {
+                    // Unpaired surrogate, replaced like String.getBytes() does
+                    array[position++] = '?';
+                    continue;
+                }
+                array[position++] = (byte) (0xf0 | (codePoint >> 18));
+                array[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                array[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                array[position++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                array[position++] = (byte) (0xe0 | (c >> 12));
+                array[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                array[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        mBuffer.position(position - mBuffer.arrayOffset());
+    }
+
+    private void appendEncoded(CharBuffer chars) {
+        mEncoder.reset();
+        while (mEncoder.encode(chars, mBuffer, true).isOverflow()) {
+            ensureCapacity(mBuffer.remaining() + 1);
+        }
+        while (mEncoder.flush(mBuffer).isOverflow()) {
+            ensureCapacity(mBuffer.remaining() + 1);
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (mBuffer.remaining() < bytes) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(mBuffer.capacity() * 2, mBuffer.position() + bytes));
+            mBuffer.flip();
+            buffer.put(mBuffer);
+            mBuffer = buffer;
+        }
+    }
+
+    /**
+     * Get the amount of encoded bytes waiting to be written.
+     *
+     * @return Buffered bytes.
+     */
+    public int size() {
+        return mBuffer.position();
+    }
+
+    /**
+     * Check if no lines are waiting to be written.
+     *
+     * @return True if empty.
+     */
+    public boolean isEmpty() {
+        return mLines == 0;
+    }
+
+    /**
+     * Check if enough bytes are buffered that the lines should be flushed.
+     *
+     * @return True if {@link #MAX_BATCH_SIZE} has been reached.
+     */
+    public boolean isFull() {
+        return mBuffer.position() >= MAX_BATCH_SIZE;
+    }
+
+    /**
+     * Write all buffered lines to a stream with a single write and flush.
+     *
+     * @param stream Stream to write to.
+     */
+    public void writeTo(OutputStream stream) throws IOException {
+        if (mLines == 0) {
+            return;
+        }
+        stream.write(mBuffer.array(), mBuffer.arrayOffset(), mBuffer.position());
+        stream.flush();
+        mBuffer.clear();
+        flushed();
+    }
+
+    /**
+     * Prepare the buffered lines to be written to a channel. No lines may be added until {@link #written()} is called.
+     *
+     * @return Buffer positioned at the encoded lines.
+     */
+    public ByteBuffer flip() {
+        mBuffer.flip();
+        return mBuffer;
+    }
+
+    /**
+     * Reset the buffer after all bytes returned by {@link #flip()} have been written.
+     */
+    public void written() {
+        mBuffer.clear();
+        flushed();
+    }
+
+    private void flushed() {
+        mFlushes++;
+        mFlushedLines += mLines;
+        mLines = 0;
+    }
+
+    /**
+     * Get the amount of times lines have been flushed.
+     *
+     * @return Flush count.
+     */
+    public long getFlushCount() {
+        return mFlushes;
+    }
+
+    /**
+     * Get the amount of lines flushed.
+     *
+     * @return Line count.
+     */
+    public long getLineCount() {
+        return mFlushedLines;
+    }
+
+    /**
+     * Get the average amount of lines written with each flush.
+     *
+     * @return Lines per flush, or 0 if nothing has been flushed.
+     */
+    public double getLinesPerFlush() {
+        long flushes = mFlushes;
+        return flushes > 0 ? (double) mFlushedLines / flushes : 0;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.utils;
+
+import com.nebkat.junglist.irc.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Byte level IRC line framer
+ *
+ * Finds line endings directly in a reusable receive buffer, so the only allocation per line is the decoded line itself.
+ */
+public class LineFramer {
+    private static final String TAG = "LineFramer";
+
+    /**
+     * Maximum length of a line excluding message tags, including the line ending
+     */
+    public static final int MAX_LINE_LENGTH = 512;
+
+    /**
+     * Maximum length of message tags, including the leading '@' and trailing space
+     */
+    public static final int MAX_TAGS_LENGTH = 8191;
+
+    /**
+     * Upper bound for line lengths advertised by servers
+     */
+    public static final int MAX_LINE_LENGTH_LIMIT = 16384;
+
+    private ByteBuffer mBuffer = ByteBuffer.allocate(MAX_TAGS_LENGTH + MAX_LINE_LENGTH);
+    private final Charset mCharset;
+
+    private int mMaxLineLength = MAX_LINE_LENGTH;
+
+    /**
+     * Start of the first unconsumed line
+     */
+    private int mStart;
+
+    /**
+     * Position up to which the buffer has been searched for a line ending
+     */
+    private int mScanned;
+
+    /**
+     * Whether the remainder of an overlong line is being skipped
+     */
+    private boolean mDiscarding;
+
+    public LineFramer(Charset charset) {
+        mCharset = charset;
+    }
+
+    /**
+     * Set the maximum line length excluding message tags, including the line ending. Longer lines are discarded.
+     *
+     * @param maxLineLength Maximum line length, between {@value #MAX_LINE_LENGTH} and {@value #MAX_LINE_LENGTH_LIMIT} bytes.
+     */
+    public void setMaxLineLength(int maxLineLength) {
+        mMaxLineLength = Math.max(MAX_LINE_LENGTH, Math.min(maxLineLength, MAX_LINE_LENGTH_LIMIT));
+        if (MAX_TAGS_LENGTH + mMaxLineLength > mBuffer.capacity()) {
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_TAGS_LENGTH + mMaxLineLength);
+            mBuffer.flip();
+            buffer.put(mBuffer);
+            mBuffer = buffer;
+        }
+    }
+
+    /**
+     * Read available bytes from a stream into the buffer.
+     *
+     * @param stream Stream to read from.
+     * @return Amount of bytes read, or -1 if the end of the stream has been reached.
+     */
+    public int read(InputStream stream) throws IOException {
+        int read = stream.read(mBuffer.array(), mBuffer.arrayOffset() + mBuffer.position(), mBuffer.remaining());
+        if (read > 0) {
+            mBuffer.position(mBuffer.position() + read);
+        }
+        return read;
+    }
+
+    /**
+     * Read available bytes from a channel into the buffer.
+     *
+     * @param channel Channel to read from.
+     * @return Amount of bytes read, or -1 if the end of the stream has been reached.
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        return channel.read(mBuffer);
+    }
+
+    /**
+     * Get the next complete line in the buffer.
+     *
+     * @return Next line without the line ending, or null if more data must be read first.
+     */
+    public String next() {
+        byte[] data = mBuffer.array();
+        int end = mBuffer.position();
+        for (int i = mScanned; i < end; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+            int start = mStart;
+            mStart = i + 1;
+            mScanned = mStart;
+
+            int length = i - start;
+            if (length > 0 && data[i - 1] == '\r') {
+                length--;
+            }
+            if (mDiscarding) {
+                mDiscarding = false;
+            } else if (length > 0) {
+                if (length + 2 > maxLength(data, start, length)) {
+                    Log.w(TAG, "Discarding line of " + length + " bytes");
+                } else {
+                    return new String(data, start, length, mCharset);
+                }
+            }
+        }
+        mScanned = end;
+
+        if (mStart > 0) {
+            System.arraycopy(data, mStart, data, 0, end - mStart);
+            mBuffer.position(end - mStart);
+            mScanned -= mStart;
+            mStart = 0;
+        } else if (!mBuffer.hasRemaining()) {
+            Log.w(TAG, "Discarding line longer than " + mBuffer.capacity() + " bytes");
+            mBuffer.clear();
+            mScanned = 0;
+            mDiscarding = true;
+        }
+        return null;
+    }
+
+    private int maxLength(byte[] data, int start, int length) {
+        if (data[start] != '@') {
+            return mMaxLineLength;
+        }
+        for (int i = start; i < start + length; i++) {
+            if (data[i] == ' ') {
+                return i + 1 - start > MAX_TAGS_LENGTH ? 0 : i + 1 - start + mMaxLineLength;
+            }
+        }
+        return 0;
+    }
+}
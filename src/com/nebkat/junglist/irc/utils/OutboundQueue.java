@@ -0,0 +1,481 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.utils;
+
+import com.nebkat.junglist.irc.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Outbound line scheduler
+ *
+ * Control lines (<code>PONG</code>, <code>NICK</code>, <code>QUIT</code>, ...) are always written first. Messages are
+ * queued per target and other lines in a general queue, which are then served round robin, one line at a time, so a
+ * long paste to one target does not hold back the others. Lines within a queue keep their order. Channel commands
+ * naming a single channel (<code>JOIN</code>, <code>PART</code>, <code>MODE</code>, ...) are queued with the messages
+ * to that channel, so a message written after joining is never sent before the <code>JOIN</code>. Commands naming a
+ * list of channels are general lines, fenced against the queues of those channels so neither overtakes the other.
+ *
+ * Each target queue is limited to {@link #getMaxQueued()} messages, handled according to the {@link OverflowPolicy}.
+ * Channel commands queued with them do not count towards the limit and are never dropped, nor is anything in the
+ * general queue, as those are requests the client waits on.
+ */
+public class OutboundQueue {
+    private static final String TAG = "OutboundQueue";
+
+    public static final int DEFAULT_MAX_QUEUED = 256;
+
+    /**
+     * Key of the queue holding lines without a message target
+     */
+    private static final String GENERAL = "";
+
+    /**
+     * What to do when a line is written to a full queue.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the new line.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest line of the queue to make room.
+         */
+        DROP_OLDEST
+    }
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+
+    private final ArrayDeque<String> mControl = new ArrayDeque<>();
+    private final Map<String, ArrayDeque<Entry>> mQueues = new HashMap<>();
+    // Keys of non-empty queues in the order they are served
+    private final ArrayDeque<String> mRotation = new ArrayDeque<>();
+    // Sequences of waiting general lines naming each target, lines of the target queued after them wait for them
+    private final Map<String, ArrayDeque<Long>> mFences = new HashMap<>();
+    // Amount of messages waiting in each target queue
+    private final Map<String, Integer> mMessages = new HashMap<>();
+    private long mSequence;
+    private int mSize;
+
+    private volatile int mMaxQueued = DEFAULT_MAX_QUEUED;
+    private volatile OverflowPolicy mOverflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private volatile boolean mMergeDuplicates;
+    private volatile long mDropped;
+
+    /**
+     * Set the maximum amount of messages waiting per target. Other lines are never limited.
+     *
+     * @param maxQueued Maximum messages per target, at least 1.
+     */
+    public void setMaxQueued(int maxQueued) {
+        if (maxQueued < 1) {
+            throw new IllegalArgumentException("Queue must hold at least one message");
+        }
+        mMaxQueued = maxQueued;
+    }
+
+    /**
+     * Get the maximum amount of messages waiting per target.
+     *
+     * @return Maximum messages per target.
+     */
+    public int getMaxQueued() {
+        return mMaxQueued;
+    }
+
+    /**
+     * Set what to do when a message is written to a full target queue.
+     *
+     * @param overflowPolicy Overflow policy.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        mOverflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Get what is done when a message is written to a full target queue.
+     *
+     * @return Overflow policy.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return mOverflowPolicy;
+    }
+
+    /**
+     * Set whether a line identical to one already waiting in the same queue is merged with it rather than queued
+     * again, for example repeated <code>MODE</code> or <code>TOPIC</code> requests.
+     *
+     * @param mergeDuplicates True to merge duplicates.
+     */
+    public void setMergeDuplicates(boolean mergeDuplicates) {
+        mMergeDuplicates = mergeDuplicates;
+    }
+
+    /**
+     * Check whether duplicate waiting lines are merged.
+     *
+     * @return True if duplicates are merged.
+     */
+    public boolean isMergeDuplicates() {
+        return mMergeDuplicates;
+    }
+
+    /**
+     * Get the amount of messages dropped because their queue was full.
+     *
+     * @return Dropped message count.
+     */
+    public long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * Queue a line.
+     *
+     * @param line Line to write, without line ending.
+     * @return True if the line was queued or merged, false if it was a message dropped because its queue was full.
+     */
+    public boolean offer(String line) {
+        int start = getCommandStart(line);
+        int end = line.indexOf(' ', start);
+        if (end == -1) {
+            end = line.length();
+        }
+        String command = line.substring(start, end).toUpperCase(Locale.ROOT);
+        mLock.lock();
+        try {
+            if (isControl(command)) {
+                mControl.add(line);
+            } else {
+                String[] targets = getTargets(command, line, end + 1);
+                String key = targets != null && targets.length == 1 ? targets[0] : GENERAL;
+                ArrayDeque<Entry> queue = mQueues.get(key);
+                if (queue == null) {
+                    queue = new ArrayDeque<>();
+                    mQueues.put(key, queue);
+                }
+                if (mMergeDuplicates) {
+                    for (Entry entry : queue) {
+                        if (entry.mLine.equals(line)) {
+                            return true;
+                        }
+                    }
+                }
+                boolean message = !key.equals(GENERAL) && isMessage(command);
+                if (queue.isEmpty()) {
+                    mRotation.add(key);
+                }
+                if (message) {
+                    int messages = mMessages.getOrDefault(key, 0);
+                    if (messages >= mMaxQueued) {
+                        mDropped++;
+                        if (mOverflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                            Log.w(TAG, "Queue for " + key + " full, dropped: " + line);
+                            return false;
+                        }
+                        Log.w(TAG, "Queue for " + key + " full, dropped: " + removeOldestMessage(queue));
+                        mSize--;
+                    } else {
+                        mMessages.put(key, messages + 1);
+                    }
+                }
+                Entry entry = new Entry(line, mSequence++, message, key.equals(GENERAL) ? targets : null);
+                if (entry.mFences != null) {
+                    for (String target : entry.mFences) {
+                        mFences.computeIfAbsent(target, (k) -> new ArrayDeque<>()).add(entry.mSequence);
+                    }
+                }
+                queue.add(entry);
+            }
+            mSize++;
+            mNotEmpty.signal();
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Take the next line to write, if any.
+     *
+     * @return Line, or null if no lines are waiting.
+     */
+    public String poll() {
+        mLock.lock();
+        try {
+            return next();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Take the next line to write, waiting until one is queued.
+     *
+     * @return Line.
+     */
+    public String take() throws InterruptedException {
+        mLock.lockInterruptibly();
+        try {
+            while (mSize == 0) {
+                mNotEmpty.await();
+            }
+            return next();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Take the next line to write, waiting up to a timeout until one is queued.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit Time unit of the timeout.
+     * @return Line, or null if none was queued in time.
+     */
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        mLock.lockInterruptibly();
+        try {
+            while (mSize == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = mNotEmpty.awaitNanos(nanos);
+            }
+            return next();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private String next() {
+        if (mSize == 0) {
+            return null;
+        }
+        mSize--;
+        String line = mControl.poll();
+        if (line != null) {
+            return line;
+        }
+        // The waiting line queued first can always be served, so one is found
+        Iterator<String> rotation = mRotation.iterator();
+        while (rotation.hasNext()) {
+            String key = rotation.next();
+            ArrayDeque<Entry> queue = mQueues.get(key);
+            Entry entry = queue.peek();
+            if (isFenced(key, entry)) {
+                continue;
+            }
+            queue.poll();
+            rotation.remove();
+            if (queue.isEmpty()) {
+                mQueues.remove(key);
+            } else {
+                mRotation.add(key);
+            }
+            if (entry.mMessage) {
+                int messages = mMessages.get(key) - 1;
+                if (messages == 0) {
+                    mMessages.remove(key);
+                } else {
+                    mMessages.put(key, messages);
+                }
+            }
+            if (entry.mFences != null) {
+                for (String target : entry.mFences) {
+                    ArrayDeque<Long> fences = mFences.get(target);
+                    fences.poll();
+                    if (fences.isEmpty()) {
+                        mFences.remove(target);
+                    }
+                }
+            }
+            return entry.mLine;
+        }
+        throw new IllegalStateException("No line can be served");
+    }
+
+    /**
+     * Remove the oldest message of a queue, leaving the channel commands queued around it.
+     */
+    private static String removeOldestMessage(ArrayDeque<Entry> queue) {
+        Iterator<Entry> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.mMessage) {
+                iterator.remove();
+                return entry.mLine;
+            }
+        }
+        throw new IllegalStateException("No message queued");
+    }
+
+    private boolean isFenced(String key, Entry entry) {
+        if (entry.mFences != null) {
+            // Wait for earlier lines to the targets the general line names
+            for (String target : entry.mFences) {
+                ArrayDeque<Entry> queue = mQueues.get(target);
+                if (queue != null && queue.peek().mSequence < entry.mSequence) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        ArrayDeque<Long> fences = !key.equals(GENERAL) ? mFences.get(key) : null;
+        return fences != null && fences.peek() < entry.mSequence;
+    }
+
+    /**
+     * Get the amount of waiting lines.
+     *
+     * @return Line count.
+     */
+    public int size() {
+        mLock.lock();
+        try {
+            return mSize;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Drop all waiting lines.
+     */
+    public void clear() {
+        mLock.lock();
+        try {
+            mControl.clear();
+            mQueues.clear();
+            mRotation.clear();
+            mFences.clear();
+            mMessages.clear();
+            mSize = 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private static int getCommandStart(String line) {
+        int start = 0;
+        // Skip message tags and prefix
+        while (start < line.length() && (line.charAt(start) == '@' || line.charAt(start) == ':')) {
+            int space = line.indexOf(' ', start);
+            if (space == -1) {
+                return line.length();
+            }
+            start = space + 1;
+        }
+        return start;
+    }
+
+    private static boolean isControl(String command) {
+        switch (command) {
+            case "PONG":
+            case "PING":
+            case "NICK":
+            case "QUIT":
+            case "PASS":
+            case "USER":
+            case "CAP":
+            case "AUTHENTICATE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isMessage(String command) {
+        return command.equals("PRIVMSG") || command.equals("NOTICE");
+    }
+
+    private static String[] getTargets(String command, String line, int start) {
+        if (!isTargeted(command) || start >= line.length()) {
+            return null;
+        }
+        int end = line.indexOf(' ', start);
+        if (line.charAt(start) == ':') {
+            start++;
+        }
+        String targets = line.substring(start, end != -1 ? end : line.length()).toLowerCase(Locale.ROOT);
+        if (targets.isEmpty()) {
+            return null;
+        }
+        if (targets.indexOf(',') == -1) {
+            return new String[] {targets};
+        }
+        // Distinct, as each target is fenced once
+        Set<String> distinct = new LinkedHashSet<>();
+        int offset = 0;
+        int comma;
+        while ((comma = targets.indexOf(',', offset)) != -1) {
+            if (comma > offset) {
+                distinct.add(targets.substring(offset, comma));
+            }
+            offset = comma + 1;
+        }
+        if (offset < targets.length()) {
+            distinct.add(targets.substring(offset));
+        }
+        return distinct.toArray(new String[distinct.size()]);
+    }
+
+    private static boolean isTargeted(String command) {
+        switch (command) {
+            case "PRIVMSG":
+            case "NOTICE":
+            case "JOIN":
+            case "PART":
+            case "MODE":
+            case "TOPIC":
+            case "KICK":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static class Entry {
+        private final String mLine;
+        private final long mSequence;
+        // Message counted towards the limit of its target queue
+        private final boolean mMessage;
+        // Targets named by a general line
+        private final String[] mFences;
+
+        private Entry(String line, long sequence, boolean message, String[] fences) {
+            mLine = line;
+            mSequence = sequence;
+            mMessage = message;
+            mFences = fences;
+        }
+    }
+}
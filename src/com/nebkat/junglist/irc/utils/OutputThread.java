@@ -23,15 +23,16 @@ import com.nebkat.junglist.irc.Log;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.UnsupportedEncodingException;
-import java.io.Writer;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 
 /**
  * Queued output writer
+ *
+ * All lines queued at the time of writing are encoded into one buffer and written with a single flush.
  */
-public class OutputThread extends Thread {
+public class OutputThread extends StreamThread {
     private static final String TAG = "OutputThread";
     public static final String DEFAULT_ENCODING = "UTF-8";
 
@@ -39,30 +40,42 @@ public class OutputThread extends Thread {
     protected String mEncoding;
     protected Callback mCallback;
 
-    protected LinkedBlockingQueue<String> mWriteQueue = new LinkedBlockingQueue<>();
+    protected final OutboundQueue mWriteQueue;
+
+    private volatile LineEncoder mEncoder;
 
     public OutputThread(OutputStream output, Callback callback) {
         this(output, callback, DEFAULT_ENCODING);
     }
 
     public OutputThread(OutputStream output, Callback callback, String encoding) {
-        super();
-        setName(OutputThread.class.getSimpleName() + getId());
+        this(output, callback, encoding, new OutboundQueue());
+    }
+
+    public OutputThread(OutputStream output, Callback callback, String encoding, OutboundQueue queue) {
         mStream = output;
         mEncoding = encoding;
         mCallback = callback;
+        mWriteQueue = queue;
     }
 
     @Override
     public void run() {
-        try (Writer writer = new OutputStreamWriter(mStream, mEncoding)) {
-            process(writer);
-        } catch (UnsupportedEncodingException e) {
+        try {
+            mEncoder = new LineEncoder(Charset.forName(mEncoding));
+            process(mStream);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
             Log.wtf(TAG, mEncoding + " encoding not supported", e);
         } catch (IOException e) {
             Log.e(TAG, e);
         } catch (InterruptedException e) {
             // Ignore
+        } finally {
+            try {
+                mStream.close();
+            } catch (IOException e) {
+                // Ignore
+            }
         }
 
         if (!isInterrupted()) {
@@ -73,20 +86,60 @@ public class OutputThread extends Thread {
     /**
      * Move stream processing to helper class for easier extension
      */
-    protected void process(Writer writer) throws InterruptedException, IOException {
-        String line;
-        while (!isInterrupted() && (line = mWriteQueue.take()) != null) {
-            writer.write(line + "\r\n");
-            writer.flush();
+    protected void process(OutputStream stream) throws InterruptedException, IOException {
+        LineEncoder encoder = mEncoder;
+        while (!isInterrupted()) {
+            String line = mWriteQueue.take();
+            do {
+                long delay = nextDelay(line);
+                if (delay > 0) {
+                    // Lines already encoded are not held back by the delay of the next one
+                    encoder.writeTo(stream);
+                    sleep(delay);
+                }
+                encoder.append(line);
+            } while (!encoder.isFull() && (line = mWriteQueue.poll()) != null);
+            encoder.writeTo(stream);
         }
     }
 
-    public void write(String line) {
-        try {
-            mWriteQueue.put(line);
-        } catch (InterruptedException e) {
-            // Ignore
-        }
+    /**
+     * Get the delay before a line may be written.
+     *
+     * @param line Line about to be written.
+     * @return Delay in ms.
+     */
+    protected long nextDelay(String line) {
+        return 0;
+    }
+
+    /**
+     * Get the average amount of lines written with each flush.
+     *
+     * @return Lines per flush, or 0 if nothing has been written.
+     */
+    public double getLinesPerFlush() {
+        LineEncoder encoder = mEncoder;
+        return encoder != null ? encoder.getLinesPerFlush() : 0;
+    }
+
+    /**
+     * Queue a line to be written.
+     *
+     * @param line Line to write, without line ending.
+     * @return True if queued, false if dropped because its queue was full.
+     */
+    public boolean write(String line) {
+        return mWriteQueue.offer(line);
+    }
+
+    /**
+     * Get the queue lines are written from.
+     *
+     * @return Outbound queue.
+     */
+    public OutboundQueue getQueue() {
+        return mWriteQueue;
     }
 
     public static interface Callback {
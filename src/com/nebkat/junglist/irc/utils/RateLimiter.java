@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.utils;
+
+/**
+ * Limits the rate lines are written to a server
+ *
+ * Implementations are shared between the blocking and selector based output paths.
+ */
+public interface RateLimiter {
+    /**
+     * Reserve sending a line and calculate how long to wait before writing it. The line is counted as sent at the end
+     * of the returned delay.
+     *
+     * @param length Length of the line in bytes, including the line ending.
+     * @return Delay before the line may be written, in ms.
+     */
+    public long acquire(int length);
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.utils;
+
+import com.nebkat.junglist.irc.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking connection driven by a {@link SelectorThread}
+ *
+ * Replaces an {@link InputThread} and {@link OutputThread} pair, reporting lines to the same {@link InputThread.Callback}.
+ */
+public class SelectorConnection {
+    private static final String TAG = "SelectorConnection";
+    public static final String DEFAULT_ENCODING = "UTF-8";
+
+    private final SelectorThread mSelectorThread;
+    private final SocketChannel mChannel;
+    private final Charset mCharset;
+    private final InputThread.Callback mCallback;
+    private final RateLimiter mRateLimiter;
+
+    private volatile SelectionKey mKey;
+
+    private final LineFramer mFramer;
+    private final LineEncoder mEncoder;
+    // Encoded lines being written, or null while lines are being collected
+    private ByteBuffer mWriteBuffer;
+    // Line held back by the rate limiter until mWriteAt
+    private String mDelayedLine;
+    private long mWriteAt;
+    private boolean mTimerScheduled;
+
+    private final OutboundQueue mWriteQueue;
+    private final AtomicBoolean mWriteRequested = new AtomicBoolean();
+    private final AtomicBoolean mClosed = new AtomicBoolean();
+
+    /**
+     * Open a connection and register it with a selector thread.
+     *
+     * @param selectorThread Selector thread to drive the connection.
+     * @param server Server address.
+     * @param port Server port.
+     * @param callback Line and stream closed callback.
+     * @param rateLimiter Rate limiter to apply to writes, or null.
+     * @return Connected connection.
+     */
+    public static SelectorConnection open(SelectorThread selectorThread, String server, int port, InputThread.Callback callback, RateLimiter rateLimiter) throws IOException {
+        return open(selectorThread, server, port, callback, rateLimiter, new OutboundQueue());
+    }
+
+    /**
+     * Open a connection writing from an existing queue and register it with a selector thread.
+     *
+     * @param selectorThread Selector thread to drive the connection.
+     * @param server Server address.
+     * @param port Server port.
+     * @param callback Line and stream closed callback.
+     * @param rateLimiter Rate limiter to apply to writes, or null.
+     * @param queue Queue lines are written from.
+     * @return Connected connection.
+     */
+    public static SelectorConnection open(SelectorThread selectorThread, String server, int port, InputThread.Callback callback, RateLimiter rateLimiter, OutboundQueue queue) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(server, port));
+        channel.configureBlocking(false);
+        SelectorConnection connection = new SelectorConnection(selectorThread, channel, callback, rateLimiter, queue);
+        selectorThread.execute(connection::register);
+        return connection;
+    }
+
+    private SelectorConnection(SelectorThread selectorThread, SocketChannel channel, InputThread.Callback callback, RateLimiter rateLimiter, OutboundQueue queue) {
+        mSelectorThread = selectorThread;
+        mChannel = channel;
+        mCharset = Charset.forName(DEFAULT_ENCODING);
+        mFramer = new LineFramer(mCharset);
+        mEncoder = new LineEncoder(mCharset);
+        mCallback = callback;
+        mRateLimiter = rateLimiter;
+        mWriteQueue = queue;
+    }
+
+    private void register() {
+        if (mClosed.get()) {
+            return;
+        }
+        try {
+            mKey = mChannel.register(mSelectorThread.getSelector(), SelectionKey.OP_READ, this);
+        } catch (ClosedChannelException e) {
+            onStreamClosed();
+            return;
+        }
+        // Lines may have been queued before registration
+        onWritable();
+    }
+
+    /**
+     * Queue a line to be written.
+     *
+     * @param line Line to write, without line ending.
+     * @return True if queued, false if dropped because its queue was full.
+     */
+    public boolean write(String line) {
+        if (!mWriteQueue.offer(line)) {
+            return false;
+        }
+        if (mWriteRequested.compareAndSet(false, true)) {
+            mSelectorThread.execute(this::onWritable);
+        }
+        return true;
+    }
+
+    /**
+     * Run a task on the selector thread of the connection, in order with the lines read.
+     *
+     * @param task Task to run.
+     */
+    public void execute(Runnable task) {
+        mSelectorThread.execute(task);
+    }
+
+    /**
+     * Set the maximum length of lines read. Must be called from the {@link InputThread.Callback} while reading.
+     *
+     * @param maxLineLength Maximum line length, see {@link LineFramer#setMaxLineLength(int)}.
+     */
+    public void setMaxLineLength(int maxLineLength) {
+        mFramer.setMaxLineLength(maxLineLength);
+    }
+
+    protected void onReadable() {
+        int read;
+        try {
+            read = mFramer.read(mChannel);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if (read == -1) {
+            onStreamClosed();
+            return;
+        }
+
+        String line;
+        while (!mClosed.get() && (line = mFramer.next()) != null) {
+            mCallback.onLineRead(line);
+        }
+    }
+
+    /**
+     * Continue writing once the rate limiter lets the held back line through.
+     */
+    protected void onTimer() {
+        // Only cleared here, so lines written while waiting do not schedule further timers
+        mTimerScheduled = false;
+        onWritable();
+    }
+
+    protected void onWritable() {
+        mWriteRequested.set(false);
+        if (mKey == null || mClosed.get()) {
+            return;
+        }
+        try {
+            while (true) {
+                if (mWriteBuffer != null) {
+                    mChannel.write(mWriteBuffer);
+                    if (mWriteBuffer.hasRemaining()) {
+                        mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    mWriteBuffer = null;
+                    mEncoder.written();
+                }
+
+                if (mDelayedLine != null) {
+                    if (System.currentTimeMillis() < mWriteAt) {
+                        mKey.interestOps(SelectionKey.OP_READ);
+                        if (!mTimerScheduled) {
+                            mTimerScheduled = true;
+                            mSelectorThread.schedule(this, mWriteAt);
+                        }
+                        return;
+                    }
+                    mEncoder.append(mDelayedLine);
+                    mDelayedLine = null;
+                }
+
+                // Collect all queued lines that the rate limiter lets through into one write
+                String line;
+                while (!mEncoder.isFull() && (line = mWriteQueue.poll()) != null) {
+                    long delay = mRateLimiter != null ? mRateLimiter.acquire(Utils.utf8Length(line) + 2) : 0;
+                    if (delay > 0) {
+                        mDelayedLine = line;
+                        mWriteAt = System.currentTimeMillis() + delay;
+                        break;
+                    }
+                    mEncoder.append(line);
+                }
+
+                if (mEncoder.isEmpty()) {
+                    if (mDelayedLine == null) {
+                        mKey.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+                    continue;
+                }
+                mWriteBuffer = mEncoder.flip();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, e);
+            onStreamClosed();
+        }
+    }
+
+    /**
+     * Get the queue lines are written from.
+     *
+     * @return Outbound queue.
+     */
+    public OutboundQueue getQueue() {
+        return mWriteQueue;
+    }
+
+    /**
+     * Get the average amount of lines written with each flush.
+     *
+     * @return Lines per flush, or 0 if nothing has been written.
+     */
+    public double getLinesPerFlush() {
+        return mEncoder.getLinesPerFlush();
+    }
+
+    protected void onStreamClosed() {
+        if (closeChannel()) {
+            mCallback.onStreamClosed();
+        }
+    }
+
+    /**
+     * Close the connection without notifying the callback.
+     */
+    public void close() {
+        closeChannel();
+    }
+
+    private boolean closeChannel() {
+        if (!mClosed.compareAndSet(false, true)) {
+            return false;
+        }
+        SelectionKey key = mKey;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        return true;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.utils;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed pool of {@link SelectorThread}s shared by all connections
+ */
+public class SelectorPool {
+    private final SelectorThread[] mThreads;
+    private final AtomicInteger mNext = new AtomicInteger();
+
+    public SelectorPool(int threads) throws IOException {
+        mThreads = new SelectorThread[threads];
+        for (int i = 0; i < threads; i++) {
+            mThreads[i] = new SelectorThread();
+        }
+        for (SelectorThread thread : mThreads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Open a connection on the next selector thread.
+     *
+     * @see SelectorConnection#open(SelectorThread, String, int, InputThread.Callback, RateLimiter)
+     */
+    public SelectorConnection open(String server, int port, InputThread.Callback callback, RateLimiter rateLimiter) throws IOException {
+        return open(server, port, callback, rateLimiter, new OutboundQueue());
+    }
+
+    /**
+     * Open a connection writing from an existing queue on the next selector thread.
+     *
+     * @see SelectorConnection#open(SelectorThread, String, int, InputThread.Callback, RateLimiter, OutboundQueue)
+     */
+    public SelectorConnection open(String server, int port, InputThread.Callback callback, RateLimiter rateLimiter, OutboundQueue queue) throws IOException {
+        SelectorThread thread = mThreads[Math.floorMod(mNext.getAndIncrement(), mThreads.length)];
+        return SelectorConnection.open(thread, server, port, callback, rateLimiter, queue);
+    }
+
+    /**
+     * Stop all selector threads, closing their connections.
+     */
+    public void shutdown() {
+        for (SelectorThread thread : mThreads) {
+            thread.interrupt();
+        }
+    }
+}
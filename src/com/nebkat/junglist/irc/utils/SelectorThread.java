@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.utils;
+
+import com.nebkat.junglist.irc.Log;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector event loop driving non-blocking {@link SelectorConnection}s
+ */
+public class SelectorThread extends Thread {
+    private static final String TAG = "SelectorThread";
+
+    private final Selector mSelector;
+    private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> mTimers = new PriorityQueue<>();
+
+    public SelectorThread() throws IOException {
+        super();
+        setName(SelectorThread.class.getSimpleName() + getId());
+        setDaemon(true);
+        mSelector = Selector.open();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!isInterrupted()) {
+                runTasks();
+
+                long timeout = 0;
+                Timer next = mTimers.peek();
+                if (next != null) {
+                    timeout = Math.max(1, next.mTime - System.currentTimeMillis());
+                }
+                mSelector.select(timeout);
+
+                for (SelectionKey key : mSelector.selectedKeys()) {
+                    SelectorConnection connection = (SelectorConnection) key.attachment();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (RuntimeException e) {
+                        onError(connection, e);
+                    }
+                }
+                mSelector.selectedKeys().clear();
+
+                long now = System.currentTimeMillis();
+                while (!mTimers.isEmpty() && mTimers.peek().mTime <= now) {
+                    SelectorConnection connection = mTimers.poll().mConnection;
+                    try {
+                        connection.onTimer();
+                    } catch (RuntimeException e) {
+                        onError(connection, e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, e);
+        } finally {
+            // Sessions still open did not close themselves, so tell them the connection is gone
+            for (SelectionKey key : new ArrayList<>(mSelector.keys())) {
+                ((SelectorConnection) key.attachment()).onStreamClosed();
+            }
+            try {
+                mSelector.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = mTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Selector task failed", e);
+            }
+        }
+    }
+
+    /**
+     * Close only the connection that failed, the others on this selector keep running.
+     */
+    private void onError(SelectorConnection connection, RuntimeException e) {
+        Log.e(TAG, "Closing connection after unexpected error", e);
+        connection.onStreamClosed();
+    }
+
+    /**
+     * Run a task on the selector thread.
+     *
+     * @param task Task to run.
+     */
+    public void execute(Runnable task) {
+        mTasks.add(task);
+        mSelector.wakeup();
+    }
+
+    protected Selector getSelector() {
+        return mSelector;
+    }
+
+    /**
+     * Wake a connection up to continue writing at a later time. Must be called from the selector thread.
+     *
+     * @param connection Connection to wake up.
+     * @param time Time to wake the connection at, in ms.
+     */
+    protected void schedule(SelectorConnection connection, long time) {
+        mTimers.add(new Timer(connection, time));
+    }
+
+    private static class Timer implements Comparable<Timer> {
+        private final SelectorConnection mConnection;
+        private final long mTime;
+
+        private Timer(SelectorConnection connection, long time) {
+            mConnection = connection;
+            mTime = time;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(mTime, other.mTime);
+        }
+    }
+}
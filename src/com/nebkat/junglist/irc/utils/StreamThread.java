@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.utils;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Stream processing task run on a thread created by a {@link ThreadFactory}
+ *
+ * Not a {@link Thread} itself so that it may run on either platform or virtual threads.
+ */
+public abstract class StreamThread implements Runnable {
+    private static final ThreadFactory PLATFORM_THREAD_FACTORY = Thread::new;
+
+    private volatile Thread mThread;
+
+    /**
+     * Start processing on a new platform thread.
+     */
+    public void start() {
+        start(PLATFORM_THREAD_FACTORY);
+    }
+
+    /**
+     * Start processing on a new thread.
+     *
+     * @param factory Factory to create the thread with.
+     */
+    public void start(ThreadFactory factory) {
+        Thread thread = factory.newThread(this);
+        thread.setName(getClass().getSimpleName() + thread.getId());
+        mThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Interrupt the processing thread.
+     */
+    public void interrupt() {
+        Thread thread = mThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Check if the processing thread has been interrupted.
+     *
+     * @return True if interrupted.
+     */
+    public boolean isInterrupted() {
+        Thread thread = mThread;
+        return thread != null && thread.isInterrupted();
+    }
+
+    protected static void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nebkat.junglist.irc.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter with a per line and per byte cost
+ *
+ * Models the penalty timer used by ircds: every line advances a timer by its cost, and lines are only processed while
+ * the timer is less than the bucket capacity ahead of the current time. Lines are released at the exact time the
+ * server would accept them, so a burst of up to the capacity is sent immediately and following lines at the refill
+ * rate.
+ */
+public class TokenBucketRateLimiter implements RateLimiter {
+    private final long mCapacity;
+    private final long mLineCost;
+    private final long mByteCost;
+
+    /**
+     * Time at which the bucket is full again, in {@link System#nanoTime()} time
+     */
+    private long mFullAt;
+    private boolean mStarted;
+
+    /**
+     * Create a new rate limiter.
+     *
+     * @param capacity Bucket capacity, the total cost that may be sent in a burst.
+     * @param lineCost Cost of each line.
+     * @param byteCost Additional cost of each byte of a line.
+     * @param unit Time unit of the capacity and costs. Cost refills at one unit per unit of time.
+     */
+    public TokenBucketRateLimiter(long capacity, long lineCost, long byteCost, TimeUnit unit) {
+        mCapacity = unit.toNanos(capacity);
+        mLineCost = unit.toNanos(lineCost);
+        mByteCost = unit.toNanos(byteCost);
+    }
+
+    /**
+     * Create a rate limiter allowing a burst of lines followed by one line per interval.
+     *
+     * @param burst Amount of lines that may be sent at once.
+     * @param interval Interval between lines once the burst is used up, in ms.
+     * @return Rate limiter.
+     */
+    public static TokenBucketRateLimiter perLine(int burst, long interval) {
+        return new TokenBucketRateLimiter(burst * interval, interval, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a rate limiter matching the RFC 1459 flood control: 2 seconds per line with at most 10 seconds ahead.
+     *
+     * @return Rate limiter.
+     */
+    public static TokenBucketRateLimiter rfc1459() {
+        return new TokenBucketRateLimiter(10000, 2000, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a rate limiter matching ircu style penalties: 2 seconds per line plus 1 second per 120 bytes, with at most
+     * 10 seconds ahead.
+     *
+     * @return Rate limiter.
+     */
+    public static TokenBucketRateLimiter ircu() {
+        return new TokenBucketRateLimiter(10000000, 2000000, 1000000 / 120, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public long acquire(int length) {
+        return TimeUnit.NANOSECONDS.toMillis(acquire(length, System.nanoTime()) + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+    }
+
+    /**
+     * Reserve sending a line at a given time.
+     *
+     * @param length Length of the line in bytes.
+     * @param now Current {@link System#nanoTime()}.
+     * @return Delay before the line may be written, in ns.
+     */
+    public synchronized long acquire(int length, long now) {
+        if (!mStarted || mFullAt - now < 0) {
+            mFullAt = now;
+            mStarted = true;
+        }
+        mFullAt += mLineCost + mByteCost * length;
+        return Math.max(0, mFullAt - mCapacity - now);
+    }
+}
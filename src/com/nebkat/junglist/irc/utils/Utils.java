@@ -19,7 +19,9 @@
 
 package com.nebkat.junglist.irc.utils;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
@@ -129,6 +131,110 @@ public class Utils {
         return result;
     }
 
+    /**
+     * Split a space separated list, ignoring repeated, leading and trailing spaces, without a regular expression
+     */
+    public static String[] splitSpaces(String string) {
+        int length = string.length();
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) != ' ' && (i == 0 || string.charAt(i - 1) == ' ')) {
+                count++;
+            }
+        }
+        String[] parts = new String[count];
+        int part = 0;
+        int i = 0;
+        while (part < count) {
+            while (string.charAt(i) == ' ') {
+                i++;
+            }
+            int end = string.indexOf(' ', i);
+            if (end == -1) {
+                end = length;
+            }
+            parts[part++] = string.substring(i, end);
+            i = end;
+        }
+        return parts;
+    }
+
+    /**
+     * Return the length of a string encoded as UTF-8, without encoding it
+     */
+    public static int utf8Length(String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Split a string into parts of at most a given length when encoded as UTF-8, preferring to split at spaces
+     *
+     * Parts never split a code point. Each character is measured once, except those following the last space of a part.
+     */
+    public static List<String> splitUtf8(String string, int maxLength) {
+        List<String> parts = new ArrayList<>();
+        int length = string.length();
+        int start = 0;
+        while (start < length) {
+            int bytes = 0;
+            int end = start;
+            int space = -1;
+            while (end < length) {
+                char c = string.charAt(end);
+                int chars = 1;
+                int width;
+                if (c < 0x80) {
+                    width = 1;
+                } else if (c < 0x800) {
+                    width = 2;
+                } else if (Character.isHighSurrogate(c) && end + 1 < length && Character.isLowSurrogate(string.charAt(end + 1))) {
+                    width = 4;
+                    chars = 2;
+                } else {
+                    width = 3;
+                }
+                // Always include at least one code point so a part is never empty
+                if (bytes + width > maxLength && end > start) {
+                    break;
+                }
+                if (c == ' ') {
+                    space = end;
+                }
+                bytes += width;
+                end += chars;
+            }
+            if (end == length) {
+                parts.add(string.substring(start));
+                break;
+            }
+            if (string.charAt(end) == ' ') {
+                space = end;
+            }
+            if (space > start) {
+                parts.add(string.substring(start, space));
+                start = space + 1;
+            } else {
+                parts.add(string.substring(start, end));
+                start = end;
+            }
+        }
+        return parts;
+    }
+
     public static int countMatches(String haystack, String needle) {
         if (Utils.empty(haystack) || Utils.empty(needle)) {
             return 0;
@@ -144,4 +250,70 @@ public class Utils {
         }
         return count;
     }
+
+    /**
+     * Parse an IRCv3 <code>server-time</code> timestamp such as <code>2011-10-19T16:40:51.620Z</code>.
+     *
+     * @param time UTC timestamp with optional fraction of a second.
+     * @return Milliseconds since the epoch, or -1 if the timestamp is malformed.
+     */
+    public static long parseServerTime(String time) {
+        // YYYY-MM-DDThh:mm:ss[.fraction]Z
+        int length = time.length();
+        if (length < 20 || time.charAt(4) != '-' || time.charAt(7) != '-' || time.charAt(10) != 'T'
+                || time.charAt(13) != ':' || time.charAt(16) != ':' || time.charAt(length - 1) != 'Z') {
+            return -1;
+        }
+        int year = parseDigits(time, 0, 4);
+        int month = parseDigits(time, 5, 7);
+        int day = parseDigits(time, 8, 10);
+        int hour = parseDigits(time, 11, 13);
+        int minute = parseDigits(time, 14, 16);
+        int second = parseDigits(time, 17, 19);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return -1;
+        }
+
+        int millis = 0;
+        if (length > 20) {
+            if (time.charAt(19) != '.' || length == 21) {
+                return -1;
+            }
+            // Only the first three digits are significant
+            for (int i = 20; i < length - 1; i++) {
+                char c = time.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                if (i < 23) {
+                    millis = millis * 10 + (c - '0');
+                }
+            }
+            for (int i = length - 1; i < 23; i++) {
+                millis *= 10;
+            }
+        }
+
+        // Days since the epoch in the proleptic Gregorian calendar, with years starting in March
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+    private static int parseDigits(String string, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = string.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 Nebojsa Cvetkovic. All rights reserved.
+ *
+ * This file is part of JunglistIRC.
+ *
+ * JunglistIRC is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * JunglistIRC is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with JunglistIRC.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.nebkat.junglist.irc.utils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Factory creating virtual threads when supported by the runtime (Java 21+)
+ */
+public class VirtualThreadFactory implements ThreadFactory {
+    private static final ThreadFactory sFactory = lookupFactory();
+
+    /**
+     * Check whether the runtime supports virtual threads.
+     *
+     * @return True if virtual threads are supported.
+     */
+    public static boolean isSupported() {
+        return sFactory != null;
+    }
+
+    public VirtualThreadFactory() {
+        if (sFactory == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this runtime");
+        }
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        return sFactory.newThread(runnable);
+    }
+
+    private static ThreadFactory lookupFactory() {
+        try {
+            // Thread.ofVirtual().factory(), looked up reflectively to remain buildable on older runtimes
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(builderClass));
+            MethodHandle factory = lookup.findVirtual(builderClass, "factory", MethodType.methodType(ThreadFactory.class));
+            return (ThreadFactory) factory.invoke(ofVirtual.invoke());
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+}